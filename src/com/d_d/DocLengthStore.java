@@ -2,22 +2,43 @@ package com.d_d;/*
  *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
  */
 
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.MultiDocValues;
 import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.NumericDocValues;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * DocLengthStore is used to access the document lengths of indexed docs.
+ * <p>
+ * The lengths of a field are copied from the index into an int array,
+ * indexed by internal docid, the first time that the field is used.
+ * Code that needs the lengths of many documents (e.g., a retrieval
+ * model that normalizes scores by document length) should get the
+ * array once with getFieldLengths and index it directly, which avoids
+ * looking up the field for every document.
+ * </p><p>
+ * The store may be shared by threads that evaluate queries
+ * concurrently.  The arrays must not be changed.
+ * </p>
  */
 public class DocLengthStore {
 
     private IndexReader reader;
-    private Map<String, NumericDocValues> values = new HashMap<String, NumericDocValues>();
+
+    /**
+     * The fields that have lengths.
+     */
+    private Set<String> fields = new HashSet<String>();
+
+    /**
+     * The lengths of the fields that have been used.
+     */
+    private ConcurrentHashMap<String, int[]> lengths = new ConcurrentHashMap<String, int[]>();
 
     /**
      * @param reader IndexReader object created in {@link Idx}.
@@ -25,9 +46,7 @@ public class DocLengthStore {
      */
     public DocLengthStore(IndexReader reader) throws IOException {
         this.reader = reader;
-        for (String field : MultiFields.getIndexedFields(reader)) {
-            this.values.put(field, MultiDocValues.getNormValues(reader, field));
-        }
+        this.fields.addAll(MultiFields.getIndexedFields(reader));
     }
 
     /**
@@ -40,6 +59,72 @@ public class DocLengthStore {
      * @throws IOException Error accessing the Lucene index.
      */
     public long getDocLength(String fieldname, int docid) throws IOException {
-        return values.get(fieldname).get(docid);
+        return this.getFieldLengths(fieldname)[docid];
+    }
+
+    /**
+     * Returns the lengths of the specified field in every document.
+     * The n'th element is the length of the field in the document whose
+     * internal docid is n.  The array is shared, so it must not be
+     * changed.
+     *
+     * @param fieldname Name of field to access lengths.
+     * @return The lengths of the field.
+     * @throws IOException Error accessing the Lucene index.
+     */
+    public int[] getFieldLengths(String fieldname) throws IOException {
+
+        int[] fieldLengths = this.lengths.get(fieldname);
+
+        if (fieldLengths == null) {
+            fieldLengths = this.readFieldLengths(fieldname);
+        }
+
+        return fieldLengths;
+    }
+
+    /**
+     * Copy the lengths of a field from the index, unless another thread
+     * already has.
+     *
+     * @param fieldname Name of field to access lengths.
+     * @return The lengths of the field.
+     * @throws IOException Error accessing the Lucene index.
+     */
+    private synchronized int[] readFieldLengths(String fieldname) throws IOException {
+
+        int[] fieldLengths = this.lengths.get(fieldname);
+
+        if (fieldLengths != null) {
+            return fieldLengths;
+        }
+
+        if (!this.fields.contains(fieldname)) {
+            throw new IllegalArgumentException
+                    ("The field " + fieldname + " isn't indexed.");
+        }
+
+        //  Lengths are stored as the norms of each index segment (see
+        //  DocLenStoreSimilarity).  A segment without norms for the
+        //  field has lengths of 0.
+
+        fieldLengths = new int[this.reader.maxDoc()];
+
+        for (AtomicReaderContext leaf : this.reader.leaves()) {
+            NumericDocValues norms = leaf.reader().getNormValues(fieldname);
+
+            if (norms == null) {
+                continue;
+            }
+
+            int maxDoc = leaf.reader().maxDoc();
+
+            for (int docid = 0; docid < maxDoc; docid++) {
+                fieldLengths[leaf.docBase + docid] = (int) norms.get(docid);
+            }
+        }
+
+        this.lengths.put(fieldname, fieldLengths);
+        return fieldLengths;
     }
 }
@@ -0,0 +1,349 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ExternalIdStore is used to access the external document ids of
+ * indexed docs without loading stored documents, and to find the
+ * internal docid of an external id without searching the index.
+ * <p>
+ * The first time that an external id is requested, the external ids
+ * of all documents are read from the index into one byte arena, the
+ * live documents are sorted by external id for binary search, and
+ * the table is saved in the index directory.  Later runs memory-map
+ * the saved table.  The table is rebuilt if the index has changed.
+ * </p><p>
+ * File format (big-endian):
+ * </p>
+ * <pre>
+ *   int   MAGIC
+ *   long  index version
+ *   int   maxDoc
+ *   int   numSorted
+ *   int   offsets[maxDoc + 1]   start of each id in the arena
+ *   int   sorted[numSorted]     live docids, sorted by external id
+ *   byte  arena[]               UTF-8 external ids, concatenated
+ * </pre>
+ */
+public class ExternalIdStore {
+
+    /**
+     * The name of the saved table in the index directory.
+     */
+    public static final String FILE_NAME = "externalIds.dat";
+
+    private static final int MAGIC = 0x45494432;    // "EID2"
+    private static final int HEADER_LENGTH = 4 + 8 + 4 + 4;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Set<String> FIELDS_TO_LOAD =
+            Collections.singleton("externalId");
+
+    private IndexReader reader;
+    private File file;
+
+    /**
+     * The table, either memory-mapped or on the heap.  It is null until
+     * the first lookup.  Reads use absolute positions, so the buffer
+     * may be shared by threads.
+     */
+    private volatile ByteBuffer table = null;
+    private int numSorted;
+    private int sortedStart;
+    private int arenaStart;
+
+    /**
+     * @param reader    IndexReader object created in {@link Idx}.
+     * @param indexPath A directory that contains the Lucene index.
+     */
+    public ExternalIdStore(IndexReader reader, String indexPath) {
+        this.reader = reader;
+        this.file = new File(indexPath, FILE_NAME);
+    }
+
+    /**
+     * Returns the external id of the specified document.
+     *
+     * @param docid The internal docid in the lucene index.
+     * @return The external id, or null if the document doesn't have one.
+     * @throws IOException Error accessing the Lucene index.
+     */
+    public String getExternalDocid(int docid) throws IOException {
+
+        ByteBuffer t = this.getTable();
+
+        int start = t.getInt(HEADER_LENGTH + 4 * docid);
+        int end = t.getInt(HEADER_LENGTH + 4 * (docid + 1));
+
+        if (start == end) {
+            return null;
+        }
+
+        byte[] bytes = new byte[end - start];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = t.get(this.arenaStart + start + i);
+        }
+
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Returns the internal docid of the live document that has the
+     * specified external id.
+     *
+     * @param externalId The external docid.
+     * @return The internal docid, or -1 if there is no such document.
+     * @throws IOException Error accessing the Lucene index.
+     */
+    public int getInternalDocid(String externalId) throws IOException {
+
+        ByteBuffer t = this.getTable();
+        byte[] key = externalId.getBytes(UTF8);
+
+        int lo = 0;
+        int hi = this.numSorted - 1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int docid = t.getInt(this.sortedStart + 4 * mid);
+            int c = this.compare(t, docid, key);
+
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return docid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Compare the external id of a document to a key, byte by byte.
+     *
+     * @param t     The table.
+     * @param docid The internal docid.
+     * @param key   The UTF-8 bytes of an external id.
+     * @return A negative number, zero, or a positive number if the
+     * document's external id is less than, equal to, or greater than key.
+     */
+    private int compare(ByteBuffer t, int docid, byte[] key) {
+
+        int start = this.arenaStart + t.getInt(HEADER_LENGTH + 4 * docid);
+        int length = this.arenaStart + t.getInt(HEADER_LENGTH + 4 * (docid + 1)) - start;
+        int n = Math.min(length, key.length);
+
+        for (int i = 0; i < n; i++) {
+            int c = (t.get(start + i) & 0xff) - (key[i] & 0xff);
+
+            if (c != 0) {
+                return c;
+            }
+        }
+
+        return length - key.length;
+    }
+
+    /**
+     * Get the table, loading or building it if necessary.
+     *
+     * @return The table.
+     * @throws IOException Error accessing the Lucene index.
+     */
+    private ByteBuffer getTable() throws IOException {
+
+        ByteBuffer t = this.table;
+
+        if (t == null) {
+            synchronized (this) {
+                t = this.table;
+
+                if (t == null) {
+                    t = this.load();
+
+                    if (t == null) {
+                        t = this.build();
+                    }
+
+                    int maxDoc = t.getInt(4 + 8);
+
+                    this.numSorted = t.getInt(4 + 8 + 4);
+                    this.sortedStart = HEADER_LENGTH + 4 * (maxDoc + 1);
+                    this.arenaStart = this.sortedStart + 4 * this.numSorted;
+                    this.table = t;
+                }
+            }
+        }
+
+        return t;
+    }
+
+    /**
+     * Get the version of the index, which changes when the index does.
+     *
+     * @return The index version.
+     */
+    private long getIndexVersion() {
+        return (this.reader instanceof DirectoryReader) ?
+                ((DirectoryReader) this.reader).getVersion() : 0;
+    }
+
+    /**
+     * Memory-map the saved table, if it exists and matches the index.
+     *
+     * @return The table, or null if there is no usable saved table.
+     */
+    private ByteBuffer load() {
+
+        if (!this.file.canRead()) {
+            return null;
+        }
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+
+            try {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer t = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+                if ((t.capacity() >= HEADER_LENGTH) &&
+                        (t.getInt(0) == MAGIC) &&
+                        (t.getLong(4) == this.getIndexVersion()) &&
+                        (t.getInt(4 + 8) == this.reader.maxDoc())) {
+                    return t;
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException ex) {
+            // Fall through and rebuild the table.
+        }
+
+        return null;
+    }
+
+    /**
+     * Build the table from the stored documents in the index, and try
+     * to save it.  If the table can't be saved (e.g., the index is
+     * read-only), the table is still used for this run.
+     *
+     * @return The table.
+     * @throws IOException Error accessing the Lucene index.
+     */
+    private ByteBuffer build() throws IOException {
+
+        int n = this.reader.maxDoc();
+        final int[] offsets = new int[n + 1];
+        ByteArrayOutputStream arenaStream = new ByteArrayOutputStream(16 * n);
+        Bits liveDocs = MultiFields.getLiveDocs(this.reader);
+        List<Integer> sorted = new ArrayList<Integer>(n);
+
+        for (int docid = 0; docid < n; docid++) {
+            Document d = this.reader.document(docid, FIELDS_TO_LOAD);
+            String eid = d.get("externalId");
+
+            if (eid != null) {
+                byte[] bytes = eid.getBytes(UTF8);
+                arenaStream.write(bytes, 0, bytes.length);
+
+                if ((liveDocs == null) || liveDocs.get(docid)) {
+                    sorted.add(docid);
+                }
+            }
+
+            offsets[docid + 1] = arenaStream.size();
+        }
+
+        //  Sort the live documents by external id, comparing bytes the
+        //  same way that getInternalDocid does.
+
+        final byte[] arena = arenaStream.toByteArray();
+
+        Collections.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer d1, Integer d2) {
+                int start1 = offsets[d1];
+                int start2 = offsets[d2];
+                int length1 = offsets[d1 + 1] - start1;
+                int length2 = offsets[d2 + 1] - start2;
+                int n = Math.min(length1, length2);
+
+                for (int i = 0; i < n; i++) {
+                    int c = (arena[start1 + i] & 0xff) - (arena[start2 + i] & 0xff);
+
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+
+                return length1 - length2;
+            }
+        });
+
+        ByteBuffer t = ByteBuffer.allocate(HEADER_LENGTH + 4 * (n + 1) +
+                4 * sorted.size() + arena.length);
+        t.putInt(MAGIC);
+        t.putLong(this.getIndexVersion());
+        t.putInt(n);
+        t.putInt(sorted.size());
+
+        for (int offset : offsets) {
+            t.putInt(offset);
+        }
+
+        for (int docid : sorted) {
+            t.putInt(docid);
+        }
+
+        t.put(arena);
+        t.clear();
+
+        this.save(t);
+        return t;
+    }
+
+    /**
+     * Save the table.  It is written to a temporary file that then
+     * replaces the saved table (see Idx.replaceFile), so a concurrent
+     * reader never sees a partial table.  If the table can't be saved,
+     * a warning is printed, and later runs rebuild it.
+     *
+     * @param t The table.
+     */
+    private void save(ByteBuffer t) {
+
+        File tmp = new File(this.file.getPath() + ".tmp");
+
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+
+            try {
+                out.write(t.array(), t.arrayOffset(), t.capacity());
+            } finally {
+                out.close();
+            }
+
+            Idx.replaceFile(tmp, this.file);
+        } catch (IOException ex) {
+            tmp.delete();
+            System.err.println("Warning:  Unable to save " + this.file.getPath() + ":  " + ex);
+        }
+    }
+}
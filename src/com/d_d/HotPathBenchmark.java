@@ -0,0 +1,381 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The QryBenchmark modes that time one part of query evaluation in
+ * isolation:  -hotpaths, -scorers and -parser.  They are run through
+ * QryBenchmark, and use its Task and time.  The operator benchmarks use
+ * the most frequent terms of the index, so they are most useful with
+ * an index created by SyntheticIndex.
+ */
+public class HotPathBenchmark {
+
+    /*
+     *  A HotPath is a Task that has a name.
+     */
+    static abstract class HotPath extends QryBenchmark.Task {
+
+        String name;
+
+        HotPath(String name) {
+            this.name = name;
+        }
+    }
+
+    /*
+     *  benchmarkHotPaths times the parts of query evaluation
+     *  separately.  The operator benchmarks use the three most frequent
+     *  terms of the body field, so the results depend only on the index.
+     */
+    static void benchmarkHotPaths(final List<String[]> queries, int repeat)
+            throws IOException {
+
+        final RetrievalModel model = new RetrievalModelRankedBoolean();
+        final String[] terms = getFrequentTerms("body", 3);
+        List<HotPath> hotPaths = new ArrayList<HotPath>();
+
+        System.out.println("terms:  " + Arrays.toString(terms));
+
+        hotPaths.add(new HotPath("QryParser.getQuery (all queries)") {
+            long run() throws IOException {
+                long n = 0;
+                for (String[] query : queries) {
+                    Qry q = QryParser.getQuery(QryBenchmark.getQueryString(model, query));
+                    n += (q == null) ? 0 : q.args.size();
+                }
+                return n;
+            }
+        });
+
+        hotPaths.add(new HotPath("QryIopTerm.initialize") {
+            long run() throws IOException {
+                long n = 0;
+                for (String term : terms) {
+                    QryIopTerm q = new QryIopTerm(term);
+                    q.initialize(model);
+                    n += q.getDf();
+                }
+                return n;
+            }
+        });
+
+        hotPaths.add(new HotPath("QryIopTerm.initializeStreaming") {
+            long run() throws IOException {
+                long n = 0;
+                for (String term : terms) {
+                    QryIopTerm q = new QryIopTerm(term);
+                    q.initializeStreaming();
+                    n += q.getDf();
+                }
+                return n;
+            }
+        });
+
+        hotPaths.add(new HotPath("QryIopSyn.evaluate") {
+            long run() throws IOException {
+                QryIop q = new QryIopSyn();
+                q.setDisplayName("#SYN");
+                for (String term : terms) {
+                    q.appendArg(new QryIopTerm(term));
+                }
+                q.initialize(model);
+                return q.getCtf();
+            }
+        });
+
+        hotPaths.add(new HotPath("QryIopNear.evaluate (#NEAR/2)") {
+            long run() throws IOException {
+                QryIop q = new QryIopNear(2);
+                q.setDisplayName("#NEAR/2");
+                q.appendArg(new QryIopTerm(terms[0]));
+                q.appendArg(new QryIopTerm(terms[terms.length - 1]));
+                q.initialize(model);
+                return q.getCtf();
+            }
+        });
+
+        hotPaths.add(new HotPath("QrySopAnd iteration") {
+            long run() throws IOException {
+                return iterate(new QrySopAnd(), "#AND", terms, model, null);
+            }
+        });
+
+        hotPaths.add(new HotPath("QrySopOr iteration") {
+            long run() throws IOException {
+                return iterate(new QrySopOr(), "#OR", terms, model, null);
+            }
+        });
+
+        //  ScoreList.sort sorts the scores of every document that
+        //  matches the #OR query, which has many ties.
+
+        final ScoreList matches = new ScoreList();
+        iterate(new QrySopOr(), "#OR", terms, model, matches);
+
+        hotPaths.add(new HotPath("ScoreList.sort (" + matches.size() + " documents)") {
+            ScoreList r;
+
+            void setup() {
+                this.r = new ScoreList();
+                for (int i = 0; i < matches.size(); i++) {
+                    this.r.add(matches.getDocid(i), matches.getDocidScore(i));
+                }
+            }
+
+            long run() {
+                this.r.sort();
+                return this.r.getDocid(0);
+            }
+        });
+
+        System.out.println("benchmark\tmean ms\tmin ms\tmax ms");
+
+        for (HotPath hotPath : hotPaths) {
+            QryBenchmark.Times times = QryBenchmark.time(hotPath, repeat);
+
+            System.out.println(String.format("%s\t%.3f\t%.3f\t%.3f",
+                    hotPath.name, times.getMeanMs(), times.min / 1e6, times.max / 1e6));
+        }
+    }
+
+    /*
+     *  benchmarkScorers evaluates each query with the RankedBoolean
+     *  model, scoring documents with QrySop.getScore and with a
+     *  compiled QryScorer, and checks that both produce the same scores.
+     *  Each query is parsed and initialized again for every evaluation,
+     *  but only the iteration and scoring are timed, so the difference
+     *  is the cost of scoring.
+     */
+    static void benchmarkScorers(List<String[]> queries, int repeat)
+            throws IOException {
+
+        final RetrievalModel model = new RetrievalModelRankedBoolean();
+        model.setStreamingTerms(false);
+
+        System.out.println("qid\tmatches\ttree ms\tcompiled ms\tspeedup");
+
+        for (String[] query : queries) {
+            final String qString = QryBenchmark.getQueryString(model, query);
+            Qry q = QryParser.getQuery(qString);
+
+            if ((q == null) || (q.args.size() == 0)) {
+                continue;
+            }
+
+            //  Check the scores.
+
+            ScoreList tree = new ScoreList();
+            ScoreList compiled = new ScoreList();
+
+            score(initialize(qString, model), model, false, tree);
+            score(initialize(qString, model), model, true, compiled);
+
+            if (tree.size() != compiled.size()) {
+                throw new IllegalStateException("Query " + query[0] + ": " +
+                        tree.size() + " tree matches, " + compiled.size() + " compiled.");
+            }
+
+            for (int i = 0; i < tree.size(); i++) {
+                if ((tree.getDocid(i) != compiled.getDocid(i)) ||
+                        (tree.getDocidScore(i) != compiled.getDocidScore(i))) {
+                    throw new IllegalStateException
+                            ("Query " + query[0] + ": the scores differ at match " + i + ".");
+                }
+            }
+
+            QryBenchmark.Times treeTime = QryBenchmark.time(new QryBenchmark.Task() {
+                QrySop q;
+
+                void setup() throws IOException {
+                    this.q = initialize(qString, model);
+                }
+
+                long run() throws IOException {
+                    return score(this.q, model, false, null);
+                }
+            }, repeat);
+
+            QryBenchmark.Times compiledTime = QryBenchmark.time(new QryBenchmark.Task() {
+                QrySop q;
+
+                void setup() throws IOException {
+                    this.q = initialize(qString, model);
+                }
+
+                long run() throws IOException {
+                    return score(this.q, model, true, null);
+                }
+            }, repeat);
+
+            System.out.println(String.format("%s\t%d\t%.3f\t%.3f\t%.2fx",
+                    query[0], tree.size(),
+                    treeTime.getMeanMs(), compiledTime.getMeanMs(),
+                    (double) treeTime.total / Math.max(compiledTime.total, 1)));
+        }
+    }
+
+    /*
+     *  initialize parses and initializes a query.
+     */
+    static QrySop initialize(String qString, RetrievalModel model) throws IOException {
+
+        QrySop q = (QrySop) QryParser.getQuery(qString);
+        q.initialize(model);
+        return q;
+    }
+
+    /*
+     *  score iterates over the matches of an initialized query and
+     *  scores them, and returns the sum of the scores.  If r isn't
+     *  null, the scores are added to it in docid order.
+     */
+    static long score(QrySop q, RetrievalModel model, boolean compile,
+                      ScoreList r) throws IOException {
+
+        QryScorer scorer = compile ? QryScorer.compile(q, model) : null;
+        double sum = 0;
+
+        while (q.docIteratorHasMatch(model)) {
+            int docid = q.docIteratorGetMatch();
+            double score = compile ? scorer.score() : q.getScore(model);
+
+            if (r != null) {
+                r.add(docid, score);
+            }
+
+            sum += score;
+            q.docIteratorAdvancePast(docid);
+        }
+
+        return (long) sum;
+    }
+
+    /*
+     *  benchmarkParser times QryParser.getQuery on generated #AND
+     *  queries of increasing length, such as query expansion produces.
+     *  Most arguments are terms (some with fields); every tenth is a
+     *  #SYN or #NEAR/3 subquery.  If parsing is linear in the length of
+     *  the query, the time per term stays about the same.
+     */
+    static void benchmarkParser(int repeat) throws IOException {
+
+        String[] vocabulary = getFrequentTerms("body", 1000);
+        int[] lengths = {10, 1000, 50000};
+
+        System.out.println("terms\tchars\tmean ms\tns/term");
+
+        for (int length : lengths) {
+            StringBuilder query = new StringBuilder("#and(");
+
+            for (int i = 0; i < length; i++) {
+                String term = vocabulary[(i * 7919) % vocabulary.length];
+                String next = vocabulary[(i * 7919 + 1) % vocabulary.length];
+
+                if (i % 10 == 9) {
+                    query.append((i % 20 == 9) ? "#syn(" : "#near/3(")
+                            .append(term).append(' ').append(next).append(") ");
+                } else if (i % 10 == 4) {
+                    query.append(term).append(".title ");
+                } else {
+                    query.append(term).append(' ');
+                }
+            }
+
+            final String qString = query.append(')').toString();
+
+            QryBenchmark.Times times = QryBenchmark.time(new QryBenchmark.Task() {
+                long run() throws IOException {
+                    return QryParser.getQuery(qString).args.size();
+                }
+            }, repeat);
+
+            System.out.println(String.format("%d\t%d\t%.3f\t%.1f",
+                    length, qString.length(), times.getMeanMs(),
+                    (double) times.total / times.runs / length));
+        }
+    }
+
+    /*
+     *  iterate initializes a query operator whose arguments are terms,
+     *  iterates over its matches, and returns the number of matches.
+     *  If r isn't null, the scores are added to it.
+     */
+    static long iterate(QrySop q, String name, String[] terms,
+                        RetrievalModel model, ScoreList r) throws IOException {
+
+        q.setDisplayName(name);
+
+        for (String term : terms) {
+            q.appendArg(new QryIopTerm(term));
+        }
+
+        q.initialize(model);
+        long n = 0;
+
+        while (q.docIteratorHasMatch(model)) {
+            int docid = q.docIteratorGetMatch();
+            double score = q.getScore(model);
+
+            if (r != null) {
+                r.add(docid, score);
+            }
+
+            n++;
+            q.docIteratorAdvancePast(docid);
+        }
+
+        return n;
+    }
+
+    /*
+     *  getFrequentTerms returns the n terms of a field that have the
+     *  largest df, most frequent first.
+     */
+    static String[] getFrequentTerms(String fieldName, int n) throws IOException {
+
+        Terms terms = MultiFields.getTerms(Idx.INDEXREADER, fieldName);
+        List<String> best = new ArrayList<String>();
+        List<Integer> bestDf = new ArrayList<Integer>();
+
+        if (terms != null) {
+            TermsEnum termsEnum = terms.iterator(null);
+            BytesRef term;
+
+            while ((term = termsEnum.next()) != null) {
+                int df = termsEnum.docFreq();
+                int i = bestDf.size();
+
+                while ((i > 0) && (bestDf.get(i - 1) < df)) {
+                    i--;
+                }
+
+                if (i < n) {
+                    best.add(i, term.utf8ToString());
+                    bestDf.add(i, df);
+
+                    if (best.size() > n) {
+                        best.remove(n);
+                        bestDf.remove(n);
+                    }
+                }
+            }
+        }
+
+        if (best.isEmpty()) {
+            throw new IllegalArgumentException("The field " + fieldName + " has no terms.");
+        }
+
+        return best.toArray(new String[best.size()]);
+    }
+}
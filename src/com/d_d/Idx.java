@@ -6,12 +6,14 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.search.*;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 
 /**
@@ -23,6 +25,12 @@ import java.util.HashMap;
  *  federated search).  The Idx class designates one index the
  *  <i>current</i> index.  All requests are satisfied from the current
  *  index.  setCurrentIndex changes the current index.
+ *  </p><p>
+ *  Lucene index readers and DocLengthStores are safe for concurrent
+ *  reads, so several threads may evaluate queries against the current
+ *  index at the same time.  The reader and the other stores of the
+ *  current index are replaced together under a lock, but the current
+ *  index should not be changed while queries are being evaluated.
  *  </p>
  */
 public class Idx {
@@ -32,14 +40,26 @@ public class Idx {
     /**
      *  The Lucene index that is considered the current index.
      */
-    public static IndexReader INDEXREADER = null;
+    public static volatile IndexReader INDEXREADER = null;
 
-    private static DocLengthStore DOCLENGTHSTORE = null;
+    private static volatile DocLengthStore DOCLENGTHSTORE = null;
+
+    private static volatile ExternalIdStore EXTERNALIDSTORE = null;
+
+    private static volatile TermBoundStore TERMBOUNDSTORE = null;
+
+    private static volatile InvListCache INVLISTCACHE = null;
 
     private static HashMap<String, IndexReader> openIndexReaders =
             new HashMap<String, IndexReader>();
     private static HashMap<String, DocLengthStore> openDocLengthStores =
             new HashMap<String, DocLengthStore>();
+    private static HashMap<String, ExternalIdStore> openExternalIdStores =
+            new HashMap<String, ExternalIdStore>();
+    private static HashMap<String, TermBoundStore> openTermBoundStores =
+            new HashMap<String, TermBoundStore>();
+    private static HashMap<String, InvListCache> openInvListCaches =
+            new HashMap<String, InvListCache>();
 
     //  --------------- Methods ---------------------------------------
 
@@ -76,9 +96,16 @@ public class Idx {
      *  @throws IOException Error accessing the Lucene index.
      */
     public static String getExternalDocid(int iid) throws IOException {
-        Document d = Idx.INDEXREADER.document(iid);
-        String eid = d.get("externalId");
-        return eid;
+        return Idx.EXTERNALIDSTORE.getExternalDocid(iid);
+    }
+
+    /**
+     *  Get the cache of inverted lists for the current index.  It is
+     *  disabled until its capacity is set.
+     *  @return The cache.
+     */
+    public static InvListCache getInvListCache() {
+        return Idx.INVLISTCACHE;
     }
 
     /**
@@ -93,6 +120,20 @@ public class Idx {
         return (int) Idx.DOCLENGTHSTORE.getDocLength(fieldName, docid);
     }
 
+    /**
+     *  Get the lengths of the specified field in every document, indexed
+     *  by internal docid.  Get the array once, e.g., when a query is
+     *  initialized, rather than calling getFieldLength for every
+     *  document.  The array is shared, so it must not be changed.
+     *  @param fieldName Name of field to access lengths.
+     *  @return the lengths of the field, including stopword positions.
+     *  @throws IOException Error accessing the Lucene index.
+     */
+    public static int[] getFieldLengths(String fieldName)
+            throws IOException {
+        return Idx.DOCLENGTHSTORE.getFieldLengths(fieldName);
+    }
+
     /**
      * Get the internal document id for a document specified by its
      * external id, e.g. clueweb09-enwp00-88-09710. If no such document
@@ -104,20 +145,47 @@ public class Idx {
     public static int getInternalDocid(String externalId)
             throws Exception {
 
-        Query q = new TermQuery(new Term("externalId", externalId));
+        int docid = Idx.EXTERNALIDSTORE.getInternalDocid(externalId);
 
-        IndexSearcher searcher = new IndexSearcher(Idx.INDEXREADER);
-        TopScoreDocCollector collector = TopScoreDocCollector.create(1, false);
-        searcher.search(q, collector);
-        ScoreDoc[] hits = collector.topDocs().scoreDocs;
-
-        if (hits.length < 1) {
+        if (docid < 0) {
             throw new Exception("External id not found.");
         } else {
-            return hits[0].doc;
+            return docid;
         }
     }
 
+    /**
+     * Get the internal document ids for many documents specified by
+     * their external ids, e.g., the documents in a relevance judgements
+     * file.  Documents that don't exist get the internal id -1.
+     * @param externalIds The external docids in the Lucene index.
+     * @return The internal docids, in the same order as externalIds.
+     * @throws IOException Error accessing the Lucene index.
+     */
+    public static int[] getInternalDocids(String[] externalIds)
+            throws IOException {
+
+        ExternalIdStore externalIdStore = Idx.EXTERNALIDSTORE;
+        int[] docids = new int[externalIds.length];
+
+        for (int i = 0; i < externalIds.length; i++) {
+            docids[i] = externalIdStore.getInternalDocid(externalIds[i]);
+        }
+
+        return docids;
+    }
+
+    /**
+     *  Get the precomputed largest term frequency of a term in any
+     *  document (see TermBoundStore).
+     *  @param fieldName The field name.
+     *  @param term The term.
+     *  @return The largest tf, or -1 if no bound is available.
+     */
+    public static int getMaxTf(String fieldName, String term) {
+        return Idx.TERMBOUNDSTORE.getMaxTf(fieldName, term);
+    }
+
     /**
      *  Get the total number of documents in the corpus.
      *  @return The total number of documents.
@@ -162,11 +230,14 @@ public class Idx {
      *  @throws IllegalArgumentException Unable to open the index.
      *  @throws IOException Error accessing the index.
      */
-    public static void open(String indexPath)
+    public static synchronized void open(String indexPath)
             throws IllegalArgumentException, IOException {
 
         IndexReader indexReader;
         DocLengthStore docLengthStore;
+        ExternalIdStore externalIdStore;
+        TermBoundStore termBoundStore;
+        InvListCache invListCache;
 
         //  Open the Lucene index
 
@@ -186,16 +257,63 @@ public class Idx {
             throw new IllegalArgumentException("Unable to open the document length store.");
         }
 
+        //  Looking up an external id in a stored document, or an
+        //  internal id with a search, is slow, so external ids are kept
+        //  in a table that is built (or loaded) the first time that it
+        //  is used.
+
+        externalIdStore = new ExternalIdStore(indexReader, indexPath);
+
+        //  Term frequency bounds are computed offline by TermBoundStore.
+        //  If they haven't been, the store is empty.
+
+        termBoundStore = new TermBoundStore(indexReader, indexPath);
+
+        //  Inverted lists are cached per index, because the same query
+        //  operator produces different lists in different indexes.
+
+        invListCache = new InvListCache();
+
         //  Keep track of the open indexes.
 
         openIndexReaders.put(indexPath, indexReader);
         openDocLengthStores.put(indexPath, docLengthStore);
+        openExternalIdStores.put(indexPath, externalIdStore);
+        openTermBoundStores.put(indexPath, termBoundStore);
+        openInvListCaches.put(indexPath, invListCache);
 
         //  The current index defaults to the first open index.
 
         if (Idx.INDEXREADER == null) {
             Idx.INDEXREADER = indexReader;
             Idx.DOCLENGTHSTORE = docLengthStore;
+            Idx.EXTERNALIDSTORE = externalIdStore;
+            Idx.TERMBOUNDSTORE = termBoundStore;
+            Idx.INVLISTCACHE = invListCache;
+        }
+    }
+
+    /**
+     *  Replace a file with a temporary file that was written next to
+     *  it.  The move is atomic where the file system supports it, so a
+     *  concurrent reader never sees a partial file.  The temporary file
+     *  is deleted if it can't be moved.
+     *  @param tmp The temporary file.
+     *  @param file The file to replace.
+     *  @throws IOException The file couldn't be replaced.
+     */
+    public static void replaceFile(File tmp, File file) throws IOException {
+
+        try {
+            try {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            tmp.delete();
+            throw ex;
         }
     }
 
@@ -204,18 +322,26 @@ public class Idx {
      *  @param indexPath A directory that contains an open Lucene index.
      *  @throws IllegalArgumentException The specified index isn't open.
      */
-    public static void setCurrentIndex(String indexPath)
+    public static synchronized void setCurrentIndex(String indexPath)
             throws IllegalArgumentException {
 
         IndexReader indexReader = openIndexReaders.get(indexPath);
         DocLengthStore docLengthStore = openDocLengthStores.get(indexPath);
+        ExternalIdStore externalIdStore = openExternalIdStores.get(indexPath);
+        TermBoundStore termBoundStore = openTermBoundStores.get(indexPath);
+        InvListCache invListCache = openInvListCaches.get(indexPath);
 
-        if ((indexReader == null) || (docLengthStore == null)) {
+        if ((indexReader == null) || (docLengthStore == null) ||
+                (externalIdStore == null) || (termBoundStore == null) ||
+                (invListCache == null)) {
             throw new IllegalArgumentException(
                     "An index must be open before it can be the current index");
         }
 
         Idx.INDEXREADER = indexReader;
         Idx.DOCLENGTHSTORE = docLengthStore;
+        Idx.EXTERNALIDSTORE = externalIdStore;
+        Idx.TERMBOUNDSTORE = termBoundStore;
+        Idx.INVLISTCACHE = invListCache;
     }
 }
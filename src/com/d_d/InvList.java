@@ -10,8 +10,8 @@ import org.apache.lucene.util.BytesRef;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Vector;
 
 /**
  *  This class implements the inverted list data structure and
@@ -35,16 +35,32 @@ public class InvList {
      */
     public int df = 0;
 
+    /**
+     *  The largest term frequency of any posting; an upper bound on
+     *  the tf of a document, which dynamic pruning uses.
+     */
+    public int maxTf = 0;
+
     /**
      *  The field covered by the inverted list.
      */
     public String field;
 
     /**
-     *  Postings that contain information about the occurrence of the
-     *  term in individual documents.
+     *  Postings are stored in parallel primitive arrays instead of
+     *  one object per document.  The n'th posting has internal docid
+     *  docids[n] and term frequency tfs[n]; its positions are
+     *  positions[offsets[n]] .. positions[offsets[n] + tfs[n] - 1].
+     */
+    private int[] docids;
+    private int[] tfs;
+    private int[] offsets;
+    private int[] positions;
+
+    /**
+     *  The initial capacity of a posting list that grows by appending.
      */
-    public Vector<DocPosting> postings = new Vector<DocPosting>();
+    private static final int INITIAL_CAPACITY = 16;
 
     //  --------------- Nested classes --------------------------------
 
@@ -52,6 +68,7 @@ public class InvList {
      *  Constructor.  An empty inverted list. Useful for some query operators.
      */
     public InvList() {
+        this.allocate(INITIAL_CAPACITY, INITIAL_CAPACITY);
     }
 
     //  --------------- Methods ---------------------------------------
@@ -61,6 +78,7 @@ public class InvList {
      *  @param fieldString The field that the term occurs in.
      */
     public InvList(String fieldString) {
+        this();
         this.field = new String(fieldString);
     }
 
@@ -81,7 +99,15 @@ public class InvList {
         BytesRef termBytes = new BytesRef(termString);
         Term term = new Term(fieldString, termBytes);
 
-        if (Idx.INDEXREADER.docFreq(term) < 1)
+        //  The index statistics size the arrays exactly, so copying
+        //  the inverted list doesn't need to grow them.
+
+        int docFreq = Idx.INDEXREADER.docFreq(term);
+        long totalTermFreq = Idx.INDEXREADER.totalTermFreq(term);
+
+        this.allocate(docFreq, (int) totalTermFreq);
+
+        if (docFreq < 1)
             return;
 
         //  Lookup the inverted list.
@@ -99,14 +125,18 @@ public class InvList {
         while (iList.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
 
             int tf = iList.freq();
-            int[] positions = new int[tf];
+
+            this.ensureCapacity(tf);
+            this.docids[this.df] = iList.docID();
+            this.tfs[this.df] = tf;
+            this.offsets[this.df] = this.ctf;
 
             for (int j = 0; j < tf; j++)
-                positions[j] = iList.nextPosition();
+                this.positions[this.ctf + j] = iList.nextPosition();
 
-            this.postings.add(new DocPosting(iList.docID(), positions));
             this.df++;
             this.ctf += tf;
+            this.maxTf = Math.max(this.maxTf, tf);
         }
     }
 
@@ -119,28 +149,169 @@ public class InvList {
      */
     public boolean appendPosting(int docid, List<Integer> positions) {
 
+        int[] locations = new int[positions.size()];
+
+        for (int i = 0; i < locations.length; i++)
+            locations[i] = positions.get(i);
+
+        return this.appendPosting(docid, locations, locations.length);
+    }
+
+    /**
+     *  Append a posting to the posting list.  Posting must be appended
+     *  in docid order, otherwise this method fails.
+     *  @param docid The internal document id of the posting.
+     *  @param locations An array of positions where the term occurs.
+     *  @param tf The number of positions in locations to append.
+     *  @return true if the posting was added successfully, otherwise false.
+     */
+    public boolean appendPosting(int docid, int[] locations, int tf) {
+
         //  A posting can only be appended if its docid is greater than
         //  the last docid.
 
-        if ((this.df > 1) &&
-                (this.postings.get(this.df - 1).docid >= docid))
+        if ((this.df > 0) &&
+                (this.docids[this.df - 1] >= docid))
             return false;
 
-        DocPosting p = new DocPosting(docid, positions);
+        this.ensureCapacity(tf);
+        this.docids[this.df] = docid;
+        this.tfs[this.df] = tf;
+        this.offsets[this.df] = this.ctf;
+        System.arraycopy(locations, 0, this.positions, this.ctf, tf);
 
-        this.postings.add(p);
         this.df++;
-        this.ctf += p.tf;
+        this.ctf += tf;
+        this.maxTf = Math.max(this.maxTf, tf);
         return true;
     }
 
+    /**
+     *  Allocate empty posting arrays with room for the specified number
+     *  of postings and positions; they grow if necessary.
+     *  @param dfCapacity The expected number of postings.
+     *  @param ctfCapacity The expected number of positions.
+     */
+    private void allocate(int dfCapacity, int ctfCapacity) {
+        this.docids = new int[Math.max(dfCapacity, 1)];
+        this.tfs = new int[this.docids.length];
+        this.offsets = new int[this.docids.length];
+        this.positions = new int[Math.max(ctfCapacity, 1)];
+    }
+
+    /**
+     *  Make sure that there is room for one more posting that has
+     *  tf positions.  The arrays grow geometrically.
+     *  @param tf The number of positions in the new posting.
+     */
+    private void ensureCapacity(int tf) {
+
+        if (this.df == this.docids.length) {
+            int capacity = this.docids.length * 2;
+            this.docids = Arrays.copyOf(this.docids, capacity);
+            this.tfs = Arrays.copyOf(this.tfs, capacity);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+        }
+
+        if (this.ctf + tf > this.positions.length) {
+            int capacity = Math.max(this.positions.length * 2, this.ctf + tf);
+            this.positions = Arrays.copyOf(this.positions, capacity);
+        }
+    }
+
+    /**
+     *  Shrink the posting arrays to fit the postings, for example,
+     *  before a finished inverted list is cached.
+     */
+    public void trimToSize() {
+
+        if (this.docids.length > Math.max(this.df, 1)) {
+            int capacity = Math.max(this.df, 1);
+            this.docids = Arrays.copyOf(this.docids, capacity);
+            this.tfs = Arrays.copyOf(this.tfs, capacity);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+        }
+
+        if (this.positions.length > Math.max(this.ctf, 1)) {
+            this.positions = Arrays.copyOf(this.positions, Math.max(this.ctf, 1));
+        }
+    }
+
+    /**
+     *  Estimate the memory used by the inverted list.
+     *  @return The estimated size in bytes.
+     */
+    public long sizeInBytes() {
+        return 64 + 4L * (3L * this.docids.length + this.positions.length);
+    }
+
     /**
      *  Get the n'th document id from the inverted list.
      *  @param docid The index of the requested document.
      *  @return The internal document id.
      */
     public int getDocid(int docid) {
-        return this.postings.get(docid).docid;
+        return this.docids[docid];
+    }
+
+    /**
+     *  Find the first posting at or after index from whose docid is at
+     *  least docid.  Galloping (exponential) search finds a range that
+     *  contains the posting, and binary search finds the posting within
+     *  the range, so skipping over a gap of g postings costs O(log g).
+     *  @param from The index of the posting to start from.
+     *  @param docid An internal document id.
+     *  @return The index of the posting, or df if there is none.
+     */
+    public int advanceTo(int from, int docid) {
+
+        if ((from >= this.df) || (this.docids[from] >= docid)) {
+            return from;
+        }
+
+        //  Gallop.  Invariant:  docids[lo] < docid.
+
+        int lo = from;
+        int hi = from + 1;
+        int step = 1;
+
+        while ((hi < this.df) && (this.docids[hi] < docid)) {
+            lo = hi;
+            step <<= 1;
+            hi = from + step;
+        }
+
+        hi = Math.min(hi, this.df);
+
+        //  Binary search.  Invariant:  hi == df or docids[hi] >= docid.
+
+        while (lo + 1 < hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if (this.docids[mid] < docid) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return hi;
+    }
+
+    /**
+     *  Find the first posting at or after index from whose docid is
+     *  greater than docid.
+     *  @param from The index of the posting to start from.
+     *  @param docid An internal document id.
+     *  @return The index of the posting, or df if there is none.
+     */
+    public int advancePast(int from, int docid) {
+
+        if (docid == Integer.MAX_VALUE) {
+            return this.df;
+        }
+
+        return this.advanceTo(from, docid + 1);
     }
 
     /**
@@ -149,7 +320,28 @@ public class InvList {
      *  @return The document's term frequency.
      */
     public int getTf(int n) {
-        return this.postings.get(n).tf;
+        return this.tfs[n];
+    }
+
+    /**
+     *  Get the j'th position in the n'th document of the inverted list.
+     *  @param n The index of the requested document.
+     *  @param j The index of the requested position within the document.
+     *  @return The position.
+     */
+    public int getPosition(int n, int j) {
+        return this.positions[this.offsets[n] + j];
+    }
+
+    /**
+     *  Copy the positions of the n'th document of the inverted list
+     *  into an array.
+     *  @param n The index of the requested document.
+     *  @param dest The destination array.
+     *  @param destPos The starting index in the destination array.
+     */
+    public void copyPositions(int n, int[] dest, int destPos) {
+        System.arraycopy(this.positions, this.offsets[n], dest, destPos, this.tfs[n]);
     }
 
     /**
@@ -160,12 +352,12 @@ public class InvList {
         output.write("df:  " + this.df + ", ctf: " + this.ctf + "\n");
 
         for (int i = 0; i < this.df; i++) {
-            int iid = this.postings.elementAt(i).docid;
+            int iid = this.docids[i];
             output.write("external: " + Idx.getExternalDocid(iid) + "   docid:  " + iid + ", tf: "
-                    + this.postings.elementAt(i).tf + ", locs: ");
+                    + this.tfs[i] + ", locs: ");
 
-            for (int j = 0; j < this.postings.elementAt(i).tf; j++) {
-                output.write(this.postings.elementAt(i).positions.elementAt(j) + " ");
+            for (int j = 0; j < this.tfs[i]; j++) {
+                output.write(this.getPosition(i, j) + " ");
             }
 
             output.write('\n');
@@ -177,53 +369,15 @@ public class InvList {
         System.out.print("df:  " + this.df + ", ctf: " + this.ctf + "\n");
 
         for (int i = 0; i < this.df; i++) {
-            int iid = this.postings.elementAt(i).docid;
+            int iid = this.docids[i];
             System.out.print("external: " + "   docid:  " + iid + ", tf: "
-                    + this.postings.elementAt(i).tf + ", locs: ");
+                    + this.tfs[i] + ", locs: ");
 
-            for (int j = 0; j < this.postings.elementAt(i).tf; j++) {
-                System.out.print(this.postings.elementAt(i).positions.elementAt(j) + " ");
+            for (int j = 0; j < this.tfs[i]; j++) {
+                System.out.print(this.getPosition(i, j) + " ");
             }
 
             System.out.print('\n');
         }
     }
-
-    /**
-     *  Utility class that makes it easier to construct postings.
-     */
-    public class DocPosting {
-
-        /**
-         *  The internal id of a document that contains the term in
-         *  the specified field.
-         */
-        public int docid = 0;
-
-        /**
-         *  Term frequency:  The number of times the term occurs in
-         *  the specified field of the document.
-         */
-        public int tf = 0;
-
-        /**
-         *  The locations where the term occurs in the specified field
-         *  of the document.
-         */
-        public Vector<Integer> positions = new Vector<Integer>();
-
-        public DocPosting(int d, int... locations) {
-            this.docid = d;
-            this.tf = locations.length;
-            for (int i = 0; i < locations.length; i++)
-                this.positions.add(locations[i]);
-        }
-
-        public DocPosting(int d, List<Integer> locations) {
-            this.docid = d;
-            this.tf = locations.size();
-            for (int i = 0; i < locations.size(); i++)
-                this.positions.add(locations.get(i));
-        }
-    }
 }
@@ -0,0 +1,135 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * InvListCache keeps the inverted lists that QryIop operators produce,
+ * so that a term (or a #SYN or #NEAR subtree) that occurs in many
+ * queries is read from the index and evaluated only once.
+ * <p>
+ * Inverted lists are keyed by a canonical form of the query operator
+ * (see Qry.getCacheKey), which includes the field.  The cache has a
+ * budget in bytes; when it is full, the least recently used lists are
+ * evicted.  A list larger than the budget isn't cached.  A capacity of
+ * 0 disables the cache.
+ * </p><p>
+ * Cached inverted lists are shared, so they must not be changed.  The
+ * cache may be used by several threads at once.
+ * </p>
+ */
+public class InvListCache {
+
+    /**
+     * The budget, in bytes.
+     */
+    private long capacity = 0;
+
+    /**
+     * The estimated size of the cached lists, in bytes.
+     */
+    private long size = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * The cached lists, in order from least to most recently used.
+     */
+    private LinkedHashMap<String, InvList> lists =
+            new LinkedHashMap<String, InvList>(16, 0.75f, true);
+
+    /**
+     * Returns true if the cache is enabled.
+     *
+     * @return True if the capacity is positive.
+     */
+    public synchronized boolean isEnabled() {
+        return this.capacity > 0;
+    }
+
+    /**
+     * Set the budget, evicting lists if necessary.
+     *
+     * @param capacity The budget in bytes, or 0 to disable the cache.
+     */
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = Math.max(capacity, 0);
+        this.evict();
+    }
+
+    /**
+     * Get a cached inverted list.
+     *
+     * @param key The canonical form of a query operator.
+     * @return The inverted list, or null if it isn't cached.
+     */
+    public synchronized InvList get(String key) {
+
+        InvList list = this.lists.get(key);
+
+        if (list != null) {
+            this.hits++;
+        } else {
+            this.misses++;
+        }
+
+        return list;
+    }
+
+    /**
+     * Cache an inverted list, evicting the least recently used lists
+     * if necessary.
+     *
+     * @param key  The canonical form of a query operator.
+     * @param list The operator's inverted list, which must not change.
+     */
+    public synchronized void put(String key, InvList list) {
+
+        long bytes = list.sizeInBytes();
+
+        if (bytes > this.capacity) {
+            return;
+        }
+
+        InvList old = this.lists.put(key, list);
+
+        if (old != null) {
+            this.size -= old.sizeInBytes();
+        }
+
+        this.size += bytes;
+        this.evict();
+    }
+
+    /**
+     * Evict the least recently used lists until the cache is within
+     * its budget.
+     */
+    private void evict() {
+
+        Iterator<Map.Entry<String, InvList>> it = this.lists.entrySet().iterator();
+
+        while ((this.size > this.capacity) && it.hasNext()) {
+            this.size -= it.next().getValue().sizeInBytes();
+            it.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Get a summary of the cache's activity, for example, to report at
+     * the end of a run.
+     *
+     * @return The summary.
+     */
+    public synchronized String toString() {
+        return String.format("hits %d, misses %d, evictions %d, lists %d, bytes %d of %d",
+                this.hits, this.misses, this.evictions, this.lists.size(),
+                this.size, this.capacity);
+    }
+}
@@ -4,6 +4,8 @@ package com.d_d; /**
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 
 /**
  *  The root class in the query operator hierarchy.  Most of this
@@ -101,6 +103,13 @@ public abstract class Qry {
     private boolean matchStored = false;    // Operators can cache matches
     private int matchingDocid;
 
+    /**
+     *  The order in which docIteratorHasMatchAll visits the arguments,
+     *  most selective first (see planMatchAll), or null to visit them
+     *  in argument order.
+     */
+    private int[] matchAllOrder = null;
+
     //  --------------- Methods ---------------------------------------
 
     /**
@@ -249,14 +258,16 @@ public abstract class Qry {
     protected boolean docIteratorHasMatchAll(RetrievalModel r) {
 
         boolean matchFound = false;
+        int[] order = this.matchAllOrder;
 
         // Keep trying until a match is found or no match is possible.
 
         while (!matchFound) {
 
-            // Get the docid of the first query argument.
+            // Get the docid of the first query argument (the most
+            // selective argument, if the arguments were planned).
 
-            Qry q_0 = this.args.get(0);
+            Qry q_0 = this.args.get((order == null) ? 0 : order[0]);
 
             if (!q_0.docIteratorHasMatch(r)) {
                 return false;
@@ -270,7 +281,7 @@ public abstract class Qry {
             matchFound = true;
 
             for (int i = 1; i < this.args.size(); i++) {
-                Qry q_i = this.args.get(i);
+                Qry q_i = this.args.get((order == null) ? i : order[i]);
 
                 q_i.docIteratorAdvanceTo(docid_0);
 
@@ -295,6 +306,39 @@ public abstract class Qry {
         return true;
     }
 
+    /**
+     *  Plan docIteratorHasMatchAll:  visit the arguments in order of
+     *  ascending (estimated) df, so that the rarest argument drives the
+     *  intersection and the others only advance to its documents.  The
+     *  arguments themselves aren't reordered, so scores are unchanged.
+     *  The arguments must be initialized first.
+     */
+    protected void planMatchAll() {
+
+        int n = this.args.size();
+        final long[] dfs = new long[n];
+        Integer[] order = new Integer[n];
+
+        for (int i = 0; i < n; i++) {
+            dfs[i] = this.args.get(i).getDfEstimate();
+            order[i] = i;
+        }
+
+        //  A stable sort, so arguments with equal dfs keep their order.
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i, Integer j) {
+                return Long.compare(dfs[i], dfs[j]);
+            }
+        });
+
+        this.matchAllOrder = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            this.matchAllOrder[i] = order[i];
+        }
+    }
+
     /**
      *  An instantiation of docIteratorHasMatch that is true if the
      *  query has a document that matches the first query argument;
@@ -353,6 +397,53 @@ public abstract class Qry {
         }
     }
 
+    /**
+     *  An instantiation of docIteratorHasMatch for MaxScore dynamic
+     *  pruning:  the match is the smallest docid that matches an
+     *  essential argument.  The other arguments can't make a document
+     *  score high enough by themselves, so they are only advanced to
+     *  the match, so that getScore sees them.  When no argument is
+     *  essential, iteration ends early.  Some subclasses may choose to
+     *  use this implementation.
+     *  @param r The retrieval model that determines what is a match
+     *  @param essential Indicates which arguments are essential.
+     *  @return True if the query matches, otherwise false.
+     */
+    protected boolean docIteratorHasMatchEssential(RetrievalModel r, boolean[] essential) {
+
+        int minDocid = Qry.INVALID_DOCID;
+
+        for (int i = 0; i < this.args.size(); i++) {
+            if (essential[i]) {
+                Qry q_i = this.args.get(i);
+
+                if (q_i.docIteratorHasMatch(r)) {
+                    int q_iDocid = q_i.docIteratorGetMatch();
+
+                    if ((minDocid > q_iDocid) ||
+                            (minDocid == Qry.INVALID_DOCID)) {
+                        minDocid = q_iDocid;
+                    }
+                }
+            }
+        }
+
+        if (minDocid == Qry.INVALID_DOCID) {
+            return false;
+        }
+
+        for (int i = 0; i < this.args.size(); i++) {
+            if (!essential[i]) {
+                Qry q_i = this.args.get(i);
+                q_i.docIteratorAdvanceTo(minDocid);
+                q_i.docIteratorHasMatch(r);
+            }
+        }
+
+        this.docIteratorSetMatchCache(minDocid);
+        return true;
+    }
+
     /**
      *  Return the status of the cache.
      *  @return True if a match is cached, otherwise false.
@@ -365,7 +456,7 @@ public abstract class Qry {
      *  Set the matching docid cache.
      *  @param docid The internal document id to store in the cache.
      */
-    private void docIteratorSetMatchCache(int docid) {
+    protected void docIteratorSetMatchCache(int docid) {
         this.docIteratorMatchCache = docid;
     }
 
@@ -379,6 +470,45 @@ public abstract class Qry {
         return ((QryIop) this.args.get(i));
     }
 
+    /**
+     *  Get a canonical form of the query operator:  its lower-case
+     *  name and the canonical forms of its arguments.  Operators that
+     *  have the same canonical form produce the same results, so it
+     *  identifies cached results (see InvListCache and QryResultCache).
+     *  @return The canonical form of the query operator.
+     */
+    public String getCacheKey() {
+
+        StringBuilder key = new StringBuilder();
+        key.append(this.getDisplayName().toLowerCase()).append('(');
+
+        for (int i = 0; i < this.args.size(); i++) {
+            key.append(i > 0 ? " " : "").append(this.args.get(i).getCacheKey());
+        }
+
+        return key.append(')').toString();
+    }
+
+    /**
+     *  Estimate the number of documents that the query operator
+     *  matches, e.g., to decide which argument of a conjunction is the
+     *  most selective.  By default the operator is treated as a
+     *  disjunction of its arguments, so the estimate is the sum of
+     *  theirs; subclasses that know better override it.  The operator
+     *  must be initialized first.
+     *  @return An estimate of the operator's df.
+     */
+    public long getDfEstimate() {
+
+        long df = 0;
+
+        for (int i = 0; i < this.args.size(); i++) {
+            df += this.args.get(i).getDfEstimate();
+        }
+
+        return df;
+    }
+
     /**
      *  Every operator has a display name that can be used by
      *  toString for debugging or other user feedback.
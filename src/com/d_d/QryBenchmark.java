@@ -0,0 +1,491 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A simple utility for timing parts of query evaluation.  Run it to
+ * see a simple usage message.
+ * <p>
+ * Each mode is a method that builds Tasks and times them with time.
+ * The modes that time one part of query evaluation in isolation
+ * (-hotpaths, -scorers and -parser) are in HotPathBenchmark.
+ * </p>
+ */
+public class QryBenchmark {
+
+    static String usage =
+            "Usage:  java " +
+                    System.getProperty("sun.java.command") +
+                    " -index INDEX_PATH [-queries QUERY_FILE] [-repeat N] [-k K]\n\n" +
+                    "where options include\n" +
+                    "    -conjunctions\tcompare linear and galloping\n" +
+                    "\t\t\tintersection of the arguments of each query,\n" +
+                    "\t\t\ttreated as #AND, in query order and rarest\n" +
+                    "\t\t\targument first\n" +
+                    "    -pruning\t\tcompare exhaustive and MaxScore evaluation\n" +
+                    "\t\t\tof each query with the RankedBoolean model,\n" +
+                    "\t\t\tkeeping the top K documents, and check that\n" +
+                    "\t\t\tthe rankings are identical\n" +
+                    "    -near\t\ttime the evaluation of each #NEAR/n\n" +
+                    "\t\t\toperator in the queries, and the time per\n" +
+                    "\t\t\targument location, which should not grow\n" +
+                    "\t\t\twith the lengths of the inverted lists\n" +
+                    "    -scorers\t\tcompare scoring each query with the\n" +
+                    "\t\t\tRankedBoolean model by walking the query tree\n" +
+                    "\t\t\t(QrySop.getScore) and by a compiled QryScorer,\n" +
+                    "\t\t\tand check that the scores are identical\n" +
+                    "    -parser\t\ttime QryParser.getQuery on generated\n" +
+                    "\t\t\tqueries of 10, 1000 and 50000 terms (no\n" +
+                    "\t\t\tquery file is needed)\n" +
+                    "    -hotpaths\t\ttime query parsing, term initialization,\n" +
+                    "\t\t\t#SYN and #NEAR/2 evaluation, #AND and #OR\n" +
+                    "\t\t\titeration, and ScoreList.sort, using the most\n" +
+                    "\t\t\tfrequent body terms of the index (e.g., one\n" +
+                    "\t\t\tcreated by SyntheticIndex)\n";
+
+    public static void main(String[] args) throws IOException {
+
+        String indexPath = null;
+        String queryFilePath = null;
+        String mode = null;
+        int repeat = 10;
+        int k = 100;
+
+        for (int i = 0; i < args.length; i++) {
+            if (("-index".equals(args[i])) && ((i + 1) < args.length)) {
+                indexPath = args[++i];
+            } else if (("-queries".equals(args[i])) && ((i + 1) < args.length)) {
+                queryFilePath = args[++i];
+            } else if (("-repeat".equals(args[i])) && ((i + 1) < args.length)) {
+                repeat = Integer.parseInt(args[++i]);
+            } else if (("-k".equals(args[i])) && ((i + 1) < args.length)) {
+                k = Integer.parseInt(args[++i]);
+            } else if (args[i].startsWith("-")) {
+                mode = args[i];
+            }
+        }
+
+        if ((indexPath == null) || (mode == null) ||
+                ((queryFilePath == null) && !"-parser".equals(mode))) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        Idx.open(indexPath);
+        List<String[]> queries = (queryFilePath == null) ?
+                new ArrayList<String[]>() : readQueryFile(queryFilePath);
+
+        if ("-conjunctions".equals(mode)) {
+            benchmarkConjunctions(queries, repeat);
+        } else if ("-pruning".equals(mode)) {
+            benchmarkPruning(queries, repeat, k);
+        } else if ("-near".equals(mode)) {
+            benchmarkNear(queries, repeat);
+        } else if ("-scorers".equals(mode)) {
+            HotPathBenchmark.benchmarkScorers(queries, repeat);
+        } else if ("-parser".equals(mode)) {
+            HotPathBenchmark.benchmarkParser(repeat);
+        } else if ("-hotpaths".equals(mode)) {
+            HotPathBenchmark.benchmarkHotPaths(queries, repeat);
+        } else {
+            System.err.println("Warning:  Unknown option " + mode + " ignored.");
+            System.err.println(usage);
+            System.exit(1);
+        }
+    }
+
+    /*
+     *  A Task is one timed operation.  setup prepares each invocation
+     *  and is not timed.  run returns a value that depends on the work
+     *  done, so that the work can't be optimized away.
+     */
+    static abstract class Task {
+
+        void setup() throws IOException {
+        }
+
+        abstract long run() throws IOException;
+    }
+
+    /*
+     *  The times of the timed runs of a Task, in nanoseconds.
+     */
+    static final class Times {
+
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        int runs = 0;
+
+        double getMeanMs() {
+            return this.total / 1e6 / Math.max(this.runs, 1);
+        }
+    }
+
+    /*
+     *  The sum of the values returned by Task.run.
+     */
+    static long sink = 0;
+
+    /*
+     *  time runs a task repeat times to warm up the JIT compiler, then
+     *  repeat more times while it is timed.
+     */
+    static Times time(Task task, int repeat) throws IOException {
+
+        Times times = new Times();
+
+        for (int r = 0; r < repeat; r++) {
+            task.setup();
+            sink += task.run();
+        }
+
+        for (int r = 0; r < repeat; r++) {
+            task.setup();
+            long t0 = System.nanoTime();
+            sink += task.run();
+            long t = System.nanoTime() - t0;
+
+            times.total += t;
+            times.min = Math.min(times.min, t);
+            times.max = Math.max(times.max, t);
+            times.runs++;
+        }
+
+        return times;
+    }
+
+    /*
+     *  getQueryString applies the default operator of a retrieval
+     *  model to a query from the query file.
+     */
+    static String getQueryString(RetrievalModel model, String[] query) {
+        return model.defaultQrySopName() + "(" + query[1] + ")";
+    }
+
+    /*
+     *  benchmarkConjunctions intersects the inverted lists of the
+     *  arguments of each query, driving the intersection from the first
+     *  argument.  It compares a posting-at-a-time scan with
+     *  InvList.advanceTo, which gallops, and galloping driven by the
+     *  rarest argument, the way Qry.docIteratorHasMatchAll does once
+     *  QrySopAnd has planned it.  Skewed conjunctions (a rare term and
+     *  a frequent term) show the largest differences.
+     */
+    static void benchmarkConjunctions(List<String[]> queries, int repeat)
+            throws IOException {
+
+        System.out.println("qid\tdfs\tmatches\tlinear ms\tgalloping ms\tspeedup\t" +
+                "rarest first ms\tspeedup");
+
+        for (String[] query : queries) {
+            Qry q = QryParser.getQuery("#and(" + query[1] + ")");
+
+            if (q == null) {
+                continue;
+            }
+
+            RetrievalModel model = new RetrievalModelUnrankedBoolean();
+            model.setStreamingTerms(false);
+            q.initialize(model);
+
+            //  Collect the inverted lists of the query arguments.
+
+            List<InvList> lists = new ArrayList<InvList>();
+
+            if (q instanceof QrySopScore) {
+                lists.add(q.getArg(0).invertedList);
+            } else {
+                for (int i = 0; i < q.args.size(); i++) {
+                    Qry q_i = q.args.get(i);
+
+                    if (q_i instanceof QrySopScore) {
+                        lists.add(q_i.getArg(0).invertedList);
+                    }
+                }
+            }
+
+            final InvList[] invLists = lists.toArray(new InvList[lists.size()]);
+            String dfs = "";
+
+            for (int i = 0; i < invLists.length; i++) {
+                dfs += (i > 0 ? "," : "") + invLists[i].df;
+            }
+
+            final InvList[] rarestFirst = invLists.clone();
+
+            Arrays.sort(rarestFirst, new Comparator<InvList>() {
+                public int compare(InvList a, InvList b) {
+                    return Integer.compare(a.df, b.df);
+                }
+            });
+
+            Times linear = time(new Task() {
+                long run() {
+                    return intersect(invLists, false);
+                }
+            }, repeat);
+
+            Times galloping = time(new Task() {
+                long run() {
+                    return intersect(invLists, true);
+                }
+            }, repeat);
+
+            Times planned = time(new Task() {
+                long run() {
+                    return intersect(rarestFirst, true);
+                }
+            }, repeat);
+
+            System.out.println(String.format("%s\t%s\t%d\t%.3f\t%.3f\t%.1fx\t%.3f\t%.1fx",
+                    query[0], dfs, intersect(invLists, true),
+                    linear.getMeanMs(), galloping.getMeanMs(),
+                    (double) linear.total / Math.max(galloping.total, 1),
+                    planned.getMeanMs(),
+                    (double) galloping.total / Math.max(planned.total, 1)));
+        }
+    }
+
+    /*
+     *  intersect counts the documents that occur in every inverted
+     *  list, using a leapfrog intersection driven by the first list.
+     */
+    static int intersect(InvList[] lists, boolean gallop) {
+
+        if (lists.length == 0) {
+            return 0;
+        }
+
+        int[] index = new int[lists.length];
+        int matches = 0;
+
+        while (index[0] < lists[0].df) {
+            int docid_0 = lists[0].getDocid(index[0]);
+            boolean matchFound = true;
+
+            for (int i = 1; i < lists.length; i++) {
+                if (gallop) {
+                    index[i] = lists[i].advanceTo(index[i], docid_0);
+                } else {
+                    while ((index[i] < lists[i].df) &&
+                            (lists[i].getDocid(index[i]) < docid_0)) {
+                        index[i]++;
+                    }
+                }
+
+                if (index[i] >= lists[i].df) {
+                    return matches;
+                }
+
+                int docid_i = lists[i].getDocid(index[i]);
+
+                if (docid_0 != docid_i) {
+                    if (gallop) {
+                        index[0] = lists[0].advanceTo(index[0], docid_i);
+                    } else {
+                        while ((index[0] < lists[0].df) &&
+                                (lists[0].getDocid(index[0]) < docid_i)) {
+                            index[0]++;
+                        }
+                    }
+
+                    matchFound = false;
+                    break;
+                }
+            }
+
+            if (matchFound) {
+                matches++;
+                index[0]++;
+            }
+        }
+
+        return matches;
+    }
+
+    /*
+     *  benchmarkPruning evaluates each query exhaustively and with
+     *  MaxScore dynamic pruning, checks that both produce the same top k
+     *  documents in the same order with the same scores, and reports the
+     *  number of candidate documents scored and the time of each.
+     */
+    static void benchmarkPruning(List<String[]> queries, int repeat, final int k)
+            throws IOException {
+
+        final RetrievalModel exhaustive = new RetrievalModelRankedBoolean();
+        final RetrievalModel pruning = new RetrievalModelRankedBoolean();
+        pruning.setDynamicPruning(true);
+
+        System.out.println("qid\tcandidates\tpruned candidates\texhaustive ms\tpruned ms\tidentical");
+
+        boolean allIdentical = true;
+
+        for (String[] query : queries) {
+            final String qString = getQueryString(exhaustive, query);
+            ScoreList r0 = new ScoreList(k);
+            ScoreList r1 = new ScoreList(k);
+            long candidates0 = evaluate(qString, exhaustive, r0);
+            long candidates1 = evaluate(qString, pruning, r1);
+
+            boolean identical = (r0.size() == r1.size());
+
+            for (int i = 0; identical && (i < r0.size()); i++) {
+                identical = (r0.getDocid(i) == r1.getDocid(i)) &&
+                        (r0.getDocidScore(i) == r1.getDocidScore(i));
+            }
+
+            allIdentical &= identical;
+
+            Times t0 = time(new Task() {
+                long run() throws IOException {
+                    return evaluate(qString, exhaustive, new ScoreList(k));
+                }
+            }, repeat);
+
+            Times t1 = time(new Task() {
+                long run() throws IOException {
+                    return evaluate(qString, pruning, new ScoreList(k));
+                }
+            }, repeat);
+
+            System.out.println(String.format("%s\t%d\t%d\t%.3f\t%.3f\t%s",
+                    query[0], candidates0, candidates1,
+                    t0.getMeanMs(), t1.getMeanMs(), identical));
+        }
+
+        System.out.println(allIdentical ? "All rankings are identical." :
+                "ERROR:  Some rankings differ.");
+    }
+
+    /*
+     *  evaluate evaluates a query the way QryEval.processQuery does,
+     *  adds the results to r and sorts it, and returns the number of
+     *  candidate documents.
+     */
+    static long evaluate(String qString, RetrievalModel model, ScoreList r)
+            throws IOException {
+
+        Qry q = QryParser.getQuery(qString);
+        long candidates = 0;
+
+        if ((q != null) && (q.args.size() > 0)) {
+            q.initialize(model);
+
+            while (q.docIteratorHasMatch(model)) {
+                int docid = q.docIteratorGetMatch();
+                r.add(docid, ((QrySop) q).getScore(model));
+                candidates++;
+
+                if (model.getDynamicPruning()) {
+                    ((QrySop) q).setMinCompetitiveScore(model, r.getMinCompetitiveScore());
+                }
+
+                q.docIteratorAdvancePast(docid);
+            }
+        }
+
+        r.sort();
+        return candidates;
+    }
+
+    /*
+     *  benchmarkNear times QryIopNear.evaluate for each #NEAR/n
+     *  operator in the queries.  The arguments are initialized again
+     *  before each evaluation, which isn't timed.  The time per location
+     *  of the arguments is roughly constant if evaluation is linear in
+     *  the lengths of the inverted lists.
+     */
+    static void benchmarkNear(List<String[]> queries, int repeat)
+            throws IOException {
+
+        final RetrievalModel model = new RetrievalModelUnrankedBoolean();
+
+        System.out.println("qid\toperator\targ dfs\targ ctfs\tmatches\tms\tns/location");
+
+        for (String[] query : queries) {
+            Qry q = QryParser.getQuery(getQueryString(model, query));
+            List<QryIopNear> nears = new ArrayList<QryIopNear>();
+
+            findNear(q, nears);
+
+            for (final QryIopNear near : nears) {
+                long dfs = 0;
+                long ctfs = 0;
+
+                Times times = time(new Task() {
+                    void setup() throws IOException {
+                        for (int i = 0; i < near.args.size(); i++) {
+                            near.getArg(i).initialize(model);
+                        }
+                    }
+
+                    long run() throws IOException {
+                        near.evaluate();
+                        return near.invertedList.df;
+                    }
+                }, repeat);
+
+                for (int i = 0; i < near.args.size(); i++) {
+                    dfs += near.getArg(i).getDf();
+                    ctfs += near.getArg(i).getCtf();
+                }
+
+                System.out.println(String.format("%s\t%s\t%d\t%d\t%d\t%.3f\t%.1f",
+                        query[0], near, dfs, ctfs, near.invertedList.df,
+                        times.getMeanMs(), (double) times.total / times.runs / Math.max(ctfs, 1)));
+            }
+        }
+    }
+
+    /*
+     *  findNear adds the #NEAR/n operators of a query to a list.
+     */
+    static void findNear(Qry q, List<QryIopNear> nears) {
+
+        if (q == null) {
+            return;
+        }
+
+        if (q instanceof QryIopNear) {
+            nears.add((QryIopNear) q);
+        }
+
+        for (int i = 0; i < q.args.size(); i++) {
+            findNear(q.args.get(i), nears);
+        }
+    }
+
+    /*
+     *  readQueryFile reads "qid:query" lines into (qid, query) pairs.
+     */
+    static List<String[]> readQueryFile(String queryFilePath) throws IOException {
+
+        List<String[]> queries = new ArrayList<String[]>();
+        BufferedReader input = new BufferedReader(new FileReader(queryFilePath));
+        String qLine;
+
+        while ((qLine = input.readLine()) != null) {
+            int d = qLine.indexOf(':');
+
+            if (d < 0) {
+                input.close();
+                throw new IllegalArgumentException
+                        ("Syntax error:  Missing ':' in query line.");
+            }
+
+            queries.add(new String[]{qLine.substring(0, d), qLine.substring(d + 1)});
+        }
+
+        input.close();
+        return queries;
+    }
+}
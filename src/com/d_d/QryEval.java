@@ -4,9 +4,16 @@ package com.d_d;/*
  */
 
 import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This software illustrates the architecture for the portion of a
@@ -26,6 +33,33 @@ public class QryEval {
     private static final String[] TEXT_FIELDS =
             {"body", "title", "url", "inlink"};
 
+    /**
+     *  The default number of documents written for each query.
+     */
+    private static final int DEFAULT_OUTPUT_LENGTH = 100;
+
+    /**
+     *  The results of recent queries, or null if they aren't cached.
+     */
+    private static QryResultCache RESULTCACHE = null;
+
+    /**
+     *  The metrics of the queries in the run, or null if they aren't
+     *  measured.
+     */
+    private static QryMetricsReport METRICS = null;
+
+    /**
+     *  The operator-level profiles of the queries in the run, or null
+     *  if queries aren't profiled.
+     */
+    private static QryProfile PROFILE = null;
+
+    /**
+     *  If false, nothing is printed for each query.
+     */
+    private static boolean VERBOSE = true;
+
 
     //  --------------- Methods ---------------------------------------
 
@@ -63,7 +97,87 @@ public class QryEval {
 
         //  Perform experiments.
 
-        processQueryFile(parameters.get("queryFilePath"), model, parameters.get("trecEvalOutputPath"));
+        int outputLength = DEFAULT_OUTPUT_LENGTH;
+
+        if (parameters.containsKey("trecEvalOutputLength")) {
+            outputLength = Integer.parseInt(parameters.get("trecEvalOutputLength"));
+        }
+
+        int threads = 1;
+
+        if (parameters.containsKey("threads")) {
+            threads = Integer.parseInt(parameters.get("threads"));
+
+            if (threads < 1) {
+                throw new IllegalArgumentException
+                        ("The threads parameter must be at least 1.");
+            }
+        }
+
+        //  Inverted lists may be cached across queries.  The budget is
+        //  in megabytes.
+
+        if (parameters.containsKey("invListCacheMB")) {
+            Idx.getInvListCache().setCapacity(
+                    Long.parseLong(parameters.get("invListCacheMB")) * 1024L * 1024L);
+        }
+
+        //  The results of repeated queries may be cached, and the cache
+        //  may be kept in a file between runs.  The budget is in
+        //  megabytes.
+
+        if (parameters.containsKey("resultCacheMB")) {
+            RESULTCACHE = new QryResultCache(
+                    Long.parseLong(parameters.get("resultCacheMB")) * 1024L * 1024L);
+
+            if (parameters.containsKey("resultCacheFile")) {
+                RESULTCACHE.load(parameters.get("resultCacheFile"));
+            }
+        }
+
+        //  The time of each phase of each query may be measured and
+        //  reported in a file.  Printing progress for each query slows
+        //  a run that has many short queries.
+
+        if (parameters.containsKey("queryMetricsPath")) {
+            METRICS = new QryMetricsReport();
+        }
+
+        if (parameters.containsKey("verbose")) {
+            VERBOSE = Boolean.parseBoolean(parameters.get("verbose"));
+        }
+
+        //  Each query may be profiled operator by operator.  The
+        //  profiles are written next to the trec_eval output.
+
+        if (parameters.containsKey("profile") &&
+                Boolean.parseBoolean(parameters.get("profile"))) {
+            PROFILE = new QryProfile();
+        }
+
+        processQueryFile(parameters.get("queryFilePath"), model,
+                parameters.get("trecEvalOutputPath"), outputLength, threads);
+
+        if (Idx.getInvListCache().isEnabled()) {
+            System.out.println("InvList cache:  " + Idx.getInvListCache());
+        }
+
+        if (RESULTCACHE != null) {
+            System.out.println("Result cache:  " + RESULTCACHE);
+
+            if (parameters.containsKey("resultCacheFile")) {
+                RESULTCACHE.save(parameters.get("resultCacheFile"));
+            }
+        }
+
+        if (METRICS != null) {
+            System.out.println("Query latency:  " + METRICS);
+            METRICS.write(parameters.get("queryMetricsPath"));
+        }
+
+        if (PROFILE != null) {
+            PROFILE.write(parameters.get("trecEvalOutputPath") + ".profile");
+        }
 
         //  Clean up.
 
@@ -88,11 +202,41 @@ public class QryEval {
             model = new RetrievalModelUnrankedBoolean();
         } else if (modelString.equals("rankedboolean")) {
             model = new RetrievalModelRankedBoolean();
+        } else if (modelString.equals("bm25")) {
+            if (!(parameters.containsKey("BM25:k_1") &&
+                    parameters.containsKey("BM25:b") &&
+                    parameters.containsKey("BM25:k_3"))) {
+                throw new IllegalArgumentException
+                        ("Required BM25 parameters were missing from the parameter file.");
+            }
+
+            model = new RetrievalModelBm25(
+                    Double.parseDouble(parameters.get("BM25:k_1")),
+                    Double.parseDouble(parameters.get("BM25:b")),
+                    Double.parseDouble(parameters.get("BM25:k_3")));
+        } else if (modelString.equals("indri")) {
+            if (!(parameters.containsKey("Indri:mu") &&
+                    parameters.containsKey("Indri:lambda"))) {
+                throw new IllegalArgumentException
+                        ("Required Indri parameters were missing from the parameter file.");
+            }
+
+            model = new RetrievalModelIndri(
+                    Double.parseDouble(parameters.get("Indri:mu")),
+                    Double.parseDouble(parameters.get("Indri:lambda")));
         } else {
             throw new IllegalArgumentException
                     ("Unknown retrieval model " + parameters.get("retrievalAlgorithm"));
         }
 
+        if (parameters.containsKey("streamingTerms")) {
+            model.setStreamingTerms(Boolean.parseBoolean(parameters.get("streamingTerms")));
+        }
+
+        if (parameters.containsKey("dynamicPruning")) {
+            model.setDynamicPruning(Boolean.parseBoolean(parameters.get("dynamicPruning")));
+        }
+
         return model;
     }
 
@@ -115,68 +259,162 @@ public class QryEval {
     }
 
     /**
-     * Process one query.
+     * Process one query.  Several queries may be processed concurrently;
+     * each one has its own query tree and score list, and the model
+     * and index are only read.
      *
-     * @param qString A string that contains a query.
-     * @param model   The retrieval model determines how matching and scoring is done.
+     * @param qString      A string that contains a query.
+     * @param model        The retrieval model determines how matching and scoring is done.
+     * @param outputLength The number of top-ranked documents to keep.
+     * @param metrics      Measures the phases of the query, or null.
+     * @param profile      If not null, the query is profiled (see
+     *                     QryProfile), and its profile is appended.
      * @return Search results
      * @throws IOException Error accessing the index
      */
-    static ScoreList processQuery(String qString, RetrievalModel model)
+    static ScoreList processQuery(String qString, RetrievalModel model, int outputLength,
+                                  QryMetrics metrics, StringBuilder profile)
             throws IOException {
 
         String defaultOp = model.defaultQrySopName();
         qString = defaultOp + "(" + qString + ")";
         Qry q = QryParser.getQuery(qString);
 
+        if ((q != null) && (profile != null)) {
+            q = QryProfile.wrap(q);
+        }
+
+        if (metrics != null) {
+            metrics.endPhase(QryMetrics.PARSE);
+        }
+
         // Show the query that is evaluated
 
-        System.out.println("    --> " + q);
+        if (VERBOSE) {
+            System.out.println("    --> " + q);
+        }
 
         if (q != null) {
 
-            ScoreList r = new ScoreList();
+            //  A query that was evaluated recently needn't be evaluated
+            //  again, unless it is profiled.
+
+            QryResultCache resultCache = RESULTCACHE;
+            String key = ((resultCache != null) && (profile == null)) ?
+                    QryResultCache.getKey(q, model) : null;
+
+            if (key != null) {
+                ScoreList cached = resultCache.get(key, outputLength);
+
+                if (cached != null) {
+                    if (metrics != null) {
+                        metrics.setCached();
+                    }
+
+                    return cached;
+                }
+            }
+
+            //  Only the top-ranked documents are written, so the score
+            //  list doesn't keep the rest.
+
+            ScoreList r = new ScoreList(outputLength);
 
             if (q.args.size() > 0) {        // Ignore empty queries
 
                 q.initialize(model);
 
+                //  The query is compiled so that scoring each document
+                //  doesn't walk the query tree.
+
+                QryScorer scorer = QryScorer.compile((QrySop) q, model);
+                boolean pruning = model.getDynamicPruning();
+
+                if (metrics != null) {
+                    metrics.endPhase(QryMetrics.INITIALIZE);
+                }
+
                 while (q.docIteratorHasMatch(model)) {
                     int docid = q.docIteratorGetMatch();
-                    double score = ((QrySop) q).getScore(model);
+                    double score = scorer.score();
                     r.add(docid, score);
+
+                    //  Tell the query which scores can still enter the
+                    //  result list, so that it can skip other documents.
+
+                    if (pruning) {
+                        ((QrySop) q).setMinCompetitiveScore(model, r.getMinCompetitiveScore());
+                    }
+
                     q.docIteratorAdvancePast(docid);
                 }
+
+                if (metrics != null) {
+                    metrics.addPostings(q);
+                }
+            }
+
+            if (metrics != null) {
+                metrics.endPhase(QryMetrics.ITERATE);
             }
 
             r.sort();
 
+            if (metrics != null) {
+                metrics.endPhase(QryMetrics.SORT);
+            }
+
+            if ((profile != null) && (q.args.size() > 0)) {
+                QryProfile.format(profile, q);
+            }
+
+            if (key != null) {
+                resultCache.put(key, outputLength, r);
+            }
+
             return r;
         } else
             return null;
     }
 
     /**
-     * Process the query file.
+     * Process the query file.  Queries are evaluated by a pool of
+     * worker threads, but their results are written in the order of
+     * the query file.  Workers format the results, and a
+     * TrecResultWriter writes them in the background, so evaluation
+     * doesn't wait for the output file.
      *
      * @param queryFilePath
      * @param model
+     * @param outputFilePath
+     * @param outputLength The number of documents to write for each query.
+     * @param threads      The number of queries to evaluate concurrently.
      * @throws IOException Error accessing the Lucene index.
      */
     static void processQueryFile(String queryFilePath,
-                                 RetrievalModel model, String outputFilePath)
+                                 final RetrievalModel model, String outputFilePath,
+                                 final int outputLength, int threads)
             throws IOException {
 
         BufferedReader input = null;
-        BufferedWriter output = null;
+        TrecResultWriter output = null;
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        int queries = 0;
+
+        //  Results that haven't been written yet, in query file order.
+        //  The number of queries in flight is bounded so that a large
+        //  query file isn't read into memory all at once.
+
+        Deque<Future<String>> pending = new ArrayDeque<Future<String>>();
+        int maxPending = 2 * threads;
 
         try {
             String qLine = null;
 
             input = new BufferedReader(new FileReader(queryFilePath));
-            output = new BufferedWriter(new FileWriter(outputFilePath));
+            output = new TrecResultWriter(outputFilePath);
 
-            //  Each pass of the loop processes one query.
+            //  Each pass of the loop submits one query.
 
             while ((qLine = input.readLine()) != null) {
                 int d = qLine.indexOf(':');
@@ -186,47 +424,132 @@ public class QryEval {
                             ("Syntax error:  Missing ':' in query line.");
                 }
 
-                printMemoryUsage(false);
-
-                String qid = qLine.substring(0, d);
-                String query = qLine.substring(d + 1);
-
-                System.out.println("Query " + qLine);
-
-                ScoreList r = null;
-
-                r = processQuery(query, model);
-
-//                if (r != null) {
-//                    printResults(qid, r);
-//                    System.out.println();
-//                }
-
-                if (r != null) {
-                    int i = 0;
-                    for (i = 0; i < r.size(); i ++) {
-                        if (i == 100) break;
-                        output.write(String.format("%s  Q0  %s  %d  %.18f  fubar\n", qid, Idx.getExternalDocid(r.getDocid(i)), i + 1, r.getDocidScore(i)));
-                        //System.out.println(String.format("%s  Q0  %s  %d  %f  run-1", qid, Idx.getExternalDocid(r.getDocid(i)), i, r.getDocidScore(i)));
+                final String qid = qLine.substring(0, d);
+                final String query = qLine.substring(d + 1);
+                final String line = qLine;
+                final QryMetrics metrics =
+                        (METRICS != null) ? new QryMetrics(queries, qid) : null;
+                final int index = queries;
+
+                queries++;
+                pending.addLast(workers.submit(new Callable<String>() {
+                    public String call() throws IOException {
+                        if (VERBOSE) {
+                            printMemoryUsage(false);
+                            System.out.println("Query " + line);
+                        }
+
+                        if (metrics != null) {
+                            metrics.start();
+                        }
+
+                        StringBuilder profile = null;
+
+                        if (PROFILE != null) {
+                            profile = new StringBuilder();
+                            profile.append("Query ").append(line).append('\n');
+                        }
+
+                        ScoreList r = processQuery(query, model, outputLength, metrics, profile);
+                        String results = formatResults(qid, r, outputLength);
+
+                        if (profile != null) {
+                            PROFILE.add(index, profile.append('\n').toString());
+                        }
+
+                        if (metrics != null) {
+                            metrics.endPhase(QryMetrics.OUTPUT);
+                            metrics.stop();
+                            METRICS.add(metrics);
+                        }
+
+                        return results;
                     }
-                    if (i == 0) {
-                        output.write(String.format("%s  Q0  %s  %d  %d  fubar\n", qid, "dummyRecord", 1, 0));
-                    }
-                } else {
-                    output.write(String.format("%s  Q0  %s  %d  %d  fubar\n", qid, "dummy", 1, 0));
-                    //System.out.println(String.format("%s  Q0  %s  %d  %f  run-1", qid, "dummy", 1, 0));
-                }
+                }));
 
+                if (pending.size() >= maxPending) {
+                    output.write(getResults(pending.removeFirst()));
+                }
+            }
 
+            while (!pending.isEmpty()) {
+                output.write(getResults(pending.removeFirst()));
             }
         } catch (IOException ex) {
             ex.printStackTrace();
         } finally {
+            workers.shutdownNow();
             input.close();
             output.close();
         }
     }
 
+    /**
+     * Wait for a query to be evaluated, and return its formatted
+     * results.
+     *
+     * @param result The pending results of a query.
+     * @return The formatted results.
+     * @throws IOException Error accessing the Lucene index.
+     */
+    private static String getResults(Future<String> result) throws IOException {
+
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while evaluating a query.", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Format the results of one query in trec_eval input format.  A
+     * query that matches nothing gets a dummy record, because trec_eval
+     * requires at least one result per query.
+     *
+     * @param qid          The query id.
+     * @param r            The query results, or null if the query was empty.
+     * @param outputLength The maximum number of documents to write.
+     * @return The formatted results.
+     * @throws IOException Error accessing the Lucene index.
+     */
+    static String formatResults(String qid, ScoreList r, int outputLength)
+            throws IOException {
+
+        StringBuilder output = new StringBuilder();
+
+        //  Each line is "qid  Q0  docid  rank  score  fubar".  Scores are
+        //  formatted like "%.18f", but without String.format.
+
+        if (r != null) {
+            int i = 0;
+            for (i = 0; i < r.size(); i ++) {
+                if (i == outputLength) break;
+                output.append(qid).append("  Q0  ").append(r.getExternalDocid(i))
+                        .append("  ").append(i + 1).append("  ");
+                TrecResultWriter.appendScore(output, r.getDocidScore(i));
+                output.append("  fubar\n");
+            }
+            if (i == 0) {
+                output.append(qid).append("  Q0  dummyRecord  1  0  fubar\n");
+            }
+        } else {
+            output.append(qid).append("  Q0  dummy  1  0  fubar\n");
+        }
+
+        return output.toString();
+    }
+
     /**
      * Print the query results.
      * <p>
@@ -246,7 +569,7 @@ public class QryEval {
             System.out.println("\tNo results.");
         } else {
             for (int i = 0; i < result.size(); i++) {
-                System.out.println("\t" + i + ":  " + Idx.getExternalDocid(result.getDocid(i)) + ", "
+                System.out.println("\t" + i + ":  " + result.getExternalDocid(i) + ", "
                         + result.getDocidScore(i));
             }
         }
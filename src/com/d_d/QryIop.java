@@ -3,7 +3,6 @@ package com.d_d; /**
  */
 
 import java.io.IOException;
-import java.util.Vector;
 
 /**
  *  All query operators that return inverted lists are subclasses of
@@ -64,6 +63,11 @@ public abstract class QryIop extends Qry {
      */
     private int locIteratorIndex = QryIop.INVALID_ITERATOR_INDEX;
 
+    /**
+     *  The number of postings that the docIterator has stopped at.
+     */
+    protected long postingsVisited = 0;
+
     /**
      *  Advance the query operator's internal iterator beyond the
      *  specified document.
@@ -71,11 +75,7 @@ public abstract class QryIop extends Qry {
      */
     public void docIteratorAdvancePast(int docid) {
 
-        while ((this.docIteratorIndex < this.invertedList.df) &&
-                (this.invertedList.getDocid(this.docIteratorIndex) <= docid)) {
-            this.docIteratorIndex++;
-        }
-
+        this.visit(this.invertedList.advancePast(this.docIteratorIndex, docid));
         this.locIteratorIndex = 0;
     }
 
@@ -86,11 +86,7 @@ public abstract class QryIop extends Qry {
      */
     public void docIteratorAdvanceTo(int docid) {
 
-        while ((this.docIteratorIndex < this.invertedList.df) &&
-                (this.invertedList.getDocid(this.docIteratorIndex) < docid)) {
-            this.docIteratorIndex++;
-        }
-
+        this.visit(this.invertedList.advanceTo(this.docIteratorIndex, docid));
         this.locIteratorIndex = 0;
     }
 
@@ -99,7 +95,7 @@ public abstract class QryIop extends Qry {
      *  any possible document.
      */
     public void docIteratorFinish() {
-        this.docIteratorIndex = this.invertedList.postings.size();
+        this.docIteratorIndex = this.invertedList.df;
     }
 
     /**
@@ -114,12 +110,24 @@ public abstract class QryIop extends Qry {
     }
 
     /**
-     *  Return the postings for the document that the docIterator points to
-     *  now, or throw an error if the docIterator doesn't point at a document.
-     *  @return A document posting.
+     *  Return the term frequency for the document that the docIterator
+     *  points to now, or throw an error if the docIterator doesn't point
+     *  at a document.
+     *  @return The document's term frequency.
+     */
+    public int docIteratorGetMatchTf() {
+        return this.invertedList.getTf(this.docIteratorIndex);
+    }
+
+    /**
+     *  Copy the positions of the document that the docIterator points
+     *  to now into an array that has room for docIteratorGetMatchTf
+     *  positions.
+     *  @param dest The destination array.
+     *  @param destPos The starting index in the destination array.
      */
-    public InvList.DocPosting docIteratorGetMatchPosting() {
-        return this.invertedList.postings.get(docIteratorIndex);
+    public void docIteratorGetMatchPositions(int[] dest, int destPos) {
+        this.invertedList.copyPositions(this.docIteratorIndex, dest, destPos);
     }
 
     /**
@@ -151,6 +159,46 @@ public abstract class QryIop extends Qry {
         return this.invertedList.df;
     }
 
+    /**
+     *  Get the number of postings that the docIterator has stopped at
+     *  since the operator was initialized, including the postings that
+     *  its arguments stopped at while its inverted list was evaluated.
+     *  Postings that advanceTo skipped over aren't counted, so this is
+     *  the iteration work of the operator, which may be much less than
+     *  its df.
+     *  @return The number of postings visited.
+     */
+    public long getPostingsVisited() {
+
+        long visited = this.postingsVisited;
+
+        for (Qry q_i : this.args) {
+            visited += ((QryIop) q_i).getPostingsVisited();
+        }
+
+        return visited;
+    }
+
+    /**
+     *  Estimate the number of documents that the query operator
+     *  matches.  The df of a QryIop operator is exact.
+     *  @return The document frequency (df).
+     */
+    public long getDfEstimate() {
+        return this.getDf();
+    }
+
+    /**
+     *  Get the largest term frequency of any document in the inverted
+     *  list.  It is an error to call this method before the object's
+     *  initialize method is called.
+     *  @return An upper bound on the term frequency of a document.
+     *  @throws IOException Error accessing the Lucene index.
+     */
+    public int getMaxTf() throws IOException {
+        return this.invertedList.maxTf;
+    }
+
     /**
      *  Get the field associated with this query operator.
      *  @return The field associated with this query operator.
@@ -169,25 +217,56 @@ public abstract class QryIop extends Qry {
     /**
      *  Initialize the query operator (and its arguments), including any
      *  internal iterators; this method must be called before iteration
-     *  can begin.
+     *  can begin.  If the operator's inverted list is in the index's
+     *  InvListCache, the cached list is used and the arguments aren't
+     *  initialized.
      *  @param r A retrieval model (that is ignored)
      */
     public void initialize(RetrievalModel r) throws IOException {
 
-        //  Initialize the query arguments (if any).
+        InvListCache cache = Idx.getInvListCache();
+        String key = cache.isEnabled() ? this.getCacheKey() : null;
+        InvList cached = (key != null) ? cache.get(key) : null;
 
-        for (Qry q_i : this.args) {
-            ((QryIop) q_i).initialize(r);
-        }
+        if (cached != null) {
+            this.invertedList = cached;
+        } else {
+
+            //  Initialize the query arguments (if any).
 
-        //  Evaluate the operator.
+            for (Qry q_i : this.args) {
+                ((QryIop) q_i).initialize(r);
+            }
 
-        this.evaluate();
+            //  Evaluate the operator.
+
+            this.evaluate();
+
+            if (key != null) {
+                this.invertedList.trimToSize();
+                cache.put(key, this.invertedList);
+            }
+        }
 
         //  Initialize the internal iterators.
 
         this.docIteratorIndex = 0;
         this.locIteratorIndex = 0;
+        this.postingsVisited = (this.invertedList.df > 0) ? 1 : 0;
+    }
+
+    /**
+     *  Move the docIterator to a posting, and count it if the
+     *  docIterator wasn't already there.
+     *  @param index The index of the posting, or df.
+     */
+    private void visit(int index) {
+
+        if ((index != this.docIteratorIndex) && (index < this.invertedList.df)) {
+            this.postingsVisited++;
+        }
+
+        this.docIteratorIndex = index;
     }
 
     /**
@@ -204,11 +283,10 @@ public abstract class QryIop extends Qry {
      *  @param loc The location to advance beyond.
      */
     public void locIteratorAdvancePast(int loc) {
-        int tf = this.invertedList.postings.get(this.docIteratorIndex).tf;
-        Vector<Integer> positions = this.invertedList.postings.get(this.docIteratorIndex).positions;
+        int tf = this.invertedList.getTf(this.docIteratorIndex);
 
         while ((this.locIteratorIndex < tf) &&
-                (positions.get(this.locIteratorIndex) <= loc)) {
+                (this.invertedList.getPosition(this.docIteratorIndex, this.locIteratorIndex) <= loc)) {
             locIteratorIndex++;
         }
     }
@@ -219,7 +297,7 @@ public abstract class QryIop extends Qry {
      */
     public void locIteratorFinish() {
         this.locIteratorIndex =
-                this.invertedList.postings.get(this.docIteratorIndex).tf;
+                this.invertedList.getTf(this.docIteratorIndex);
     }
 
     /**
@@ -230,8 +308,7 @@ public abstract class QryIop extends Qry {
      *  @return The internal id of the current document.
      */
     public int locIteratorGetMatch() {
-        Vector<Integer> locations = this.docIteratorGetMatchPosting().positions;
-        return locations.get(this.locIteratorIndex);
+        return this.invertedList.getPosition(this.docIteratorIndex, this.locIteratorIndex);
     }
 
     /**
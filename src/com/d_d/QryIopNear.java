@@ -1,33 +1,43 @@
 package com.d_d;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Created by d_d on 2/2/17.
+ * <p>
+ * The NEAR/n operator for all retrieval models.  A document matches if
+ * its arguments occur in order, each within n positions of the previous
+ * one.  Each match consumes one location of every argument, and its
+ * location is the location of the last argument.
+ * </p>
  */
 public class QryIopNear extends QryIop {
     private int operatorDistance;
 
-    private int match(int[] cur) {
+    /**
+     *  Find the first argument whose current location isn't within
+     *  operatorDistance positions after the previous argument's.
+     *  @param positions The locations of each argument in the document.
+     *  @param cur The index of each argument's current location.
+     *  @return The index of the argument, or -1 if all of them match.
+     */
+    private int match(int[][] positions, int[] cur) {
         for (int i = 1; i < cur.length; i ++){
-            if ( !(cur[i] - cur[ i - 1 ] <= this.operatorDistance && cur[i] - cur[i - 1] >= 0) ) {
-                return i;
-            }
-        }
-        return -1;
-    }
+            int distance = positions[i][cur[i]] - positions[i - 1][cur[i - 1]];
 
-    public static int getIndex(QryIop qry, int docid){
-        for (int i = 0; i < qry.invertedList.df; i ++){
-            if (qry.invertedList.postings.get(i).docid == docid) {
+            if ( !(distance <= this.operatorDistance && distance >= 0) ) {
                 return i;
             }
         }
         return -1;
     }
 
+    /**
+     *  Evaluate the query operator; the result is an internal inverted
+     *  list that may be accessed via the internal iterators.
+     *  @throws IOException Error accessing the Lucene index.
+     */
     protected void evaluate() throws IOException {
         this.invertedList = new InvList(this.getField());
 
@@ -35,64 +45,79 @@ public class QryIopNear extends QryIop {
             return;
         }
 
+        //  The locations of the current document are copied into arrays
+        //  that are reused for every document.
+
+        int n = this.args.size();
+        QryIop[] iops = new QryIop[n];
+        int[][] positions = new int[n][];
+        int[] tfs = new int[n];
+        int[] cur = new int[n];
+        int[] matches = new int[16];
+
+        for (int i = 0; i < n; i++) {
+            iops[i] = (QryIop) this.args.get(i);
+            positions[i] = new int[16];
+        }
+
+        //  Each pass of the loop examines one document that contains
+        //  every argument.  The rarest argument drives the intersection.
+
+        this.planMatchAll();
 
         while (this.docIteratorHasMatchAll(null)) {
-            QryIop matchDocId = (QryIop) this.args.get(0);
+            int docid = iops[0].docIteratorGetMatch();
 
-            int allLocs = -this.args.size();
+            for (int i = 0; i < n; i++) {
+                tfs[i] = iops[i].docIteratorGetMatchTf();
 
-            int[] cur = new int[this.args.size()];
+                if (tfs[i] > positions[i].length) {
+                    positions[i] = new int[Math.max(tfs[i], 2 * positions[i].length)];
+                }
 
-            for (int i = 0; i < this.args.size(); i++) {
-                QryIop q_i = (QryIop) this.args.get(i);
-                int docid = q_i.docIteratorGetMatch();
-                allLocs += q_i.invertedList.getTf(getIndex(q_i, docid));
-                q_i.docIteratorAdvanceTo(docid);
-                cur[i] = q_i.locIteratorGetMatch();
-                q_i.locIteratorAdvance();
+                iops[i].docIteratorGetMatchPositions(positions[i], 0);
+                cur[i] = 0;
             }
 
-            int advanced = 0;
-            List<Integer> positions = new ArrayList<>();
-            boolean from_auto_break = false;
-            while (advanced < allLocs) {
-                int unmatch_index = this.match(cur);
+            //  A single forward pass over the locations.  After a match,
+            //  every argument moves to its next location.  Otherwise the
+            //  smaller location of the first pair that is too far apart
+            //  (or out of order) moves forward.  The pass ends when an
+            //  argument that must move has no more locations.
+
+            int tf = 0;
+            boolean exhausted = false;
+
+            while (!exhausted) {
+                int unmatch_index = this.match(positions, cur);
+
                 if (unmatch_index == -1) {
-                    positions.add(cur[cur.length - 1]);
-                    for (int i = 0; i < cur.length; i++) {
-                        QryIop q_i = (QryIop) this.args.get(i);
-                        if (q_i.locIteratorHasMatch()) {
-                            cur[i] = q_i.locIteratorGetMatch();
-                            q_i.locIteratorAdvance();
-                            advanced ++;
-                        } else {
-                            advanced = allLocs;
-                            from_auto_break = true;
-                            break;
-                        }
+                    if (tf == matches.length) {
+                        matches = Arrays.copyOf(matches, 2 * tf);
                     }
-                } else {
-                    int min_index = cur[unmatch_index] < cur[unmatch_index - 1] ? unmatch_index : unmatch_index - 1;
-                    QryIop q_min = (QryIop) this.args.get(min_index);
-                    if (q_min.locIteratorHasMatch()) {
-                        cur[min_index] = q_min.locIteratorGetMatch();
-                        q_min.locIteratorAdvance();
-                        advanced ++;
-                    } else {
-                        break;
+
+                    matches[tf++] = positions[n - 1][cur[n - 1]];
+
+                    for (int i = 0; (i < n) && !exhausted; i++) {
+                        exhausted = (++cur[i] == tfs[i]);
                     }
+                } else {
+                    int min_index =
+                            (positions[unmatch_index][cur[unmatch_index]] <
+                                    positions[unmatch_index - 1][cur[unmatch_index - 1]]) ?
+                                    unmatch_index : unmatch_index - 1;
+
+                    exhausted = (++cur[min_index] == tfs[min_index]);
                 }
             }
-            int unmatch_index = this.match(cur);
-            if (unmatch_index == -1 && !from_auto_break) {
-                positions.add(cur[cur.length - 1]);
-            }
 
-            if (positions.size() != 0) {
-                this.invertedList.appendPosting(matchDocId.docIteratorGetMatch(), positions);
+            if (tf != 0) {
+                this.invertedList.appendPosting(docid, matches, tf);
             }
 
-            matchDocId.docIteratorAdvancePast(matchDocId.docIteratorGetMatch());
+            for (int i = 0; i < n; i++) {
+                iops[i].docIteratorAdvancePast(docid);
+            }
         }
     }
 
@@ -3,19 +3,31 @@ package com.d_d; /**
  */
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Vector;
+import java.util.Arrays;
 
 /**
  *  The SYN operator for all retrieval models.
  */
 public class QryIopSyn extends QryIop {
 
+    /**
+     *  Documents whose arguments have more locations than this are
+     *  merged with a priority queue; others are sorted.
+     */
+    private static final int MERGE_THRESHOLD = 256;
+
     /**
      *  Evaluate the query operator; the result is an internal inverted
      *  list that may be accessed via the internal iterators.
+     *  <p>
+     *  The arguments' inverted lists are merged with a priority queue
+     *  (a min-heap of argument indexes), first by docid and then, in
+     *  documents that several arguments match, by location (short
+     *  unions of locations are just sorted).  A location that several
+     *  arguments share (e.g., #SYN (apple apples), which stem to the
+     *  same term) occurs once in the result.  Merging n postings or
+     *  locations from k arguments costs O(n log k).
+     *  </p>
      *  @throws IOException Error accessing the Lucene index.
      */
     protected void evaluate() throws IOException {
@@ -29,49 +41,212 @@ public class QryIopSyn extends QryIop {
             return;
         }
 
+        //  The docid heap holds the arguments that have a match, keyed
+        //  by their current docids.
+
+        int k = this.args.size();
+        QryIop[] iops = new QryIop[k];
+        int[] docids = new int[k];
+        int[] docHeap = new int[k];
+        int docHeapSize = 0;
+
+        for (int i = 0; i < k; i++) {
+            iops[i] = (QryIop) this.args.get(i);
+
+            if (iops[i].docIteratorHasMatch(null)) {
+                docids[i] = iops[i].docIteratorGetMatch();
+                docHeap[docHeapSize] = i;
+                heapSiftUp(docHeap, docHeapSize++, docids);
+            }
+        }
+
+        //  Buffers for the locations of each argument and of the result.
+        //  They are reused for every document.
+
+        int[][] argPositions = new int[k][16];
+        int[] tfs = new int[k];
+        int[] cur = new int[k];
+        int[] locs = new int[k];
+        int[] locHeap = new int[k];
+        int[] active = new int[k];
+        int[] positions = new int[16];
+
         //  Each pass of the loop adds 1 document to result inverted list
         //  until all of the argument inverted lists are depleted.
 
-        while (true) {
+        while (docHeapSize > 0) {
+
+            //  Collect the locations of the arguments that match the
+            //  minimum docid, and advance them to their next documents.
+
+            int minDocid = docids[docHeap[0]];
+            int numActive = 0;
+            int total = 0;
+
+            while ((docHeapSize > 0) && (docids[docHeap[0]] == minDocid)) {
+                int a = docHeap[0];
+                QryIop iop = iops[a];
+
+                tfs[a] = iop.docIteratorGetMatchTf();
+
+                if (tfs[a] > argPositions[a].length) {
+                    argPositions[a] = new int[Math.max(tfs[a], 2 * argPositions[a].length)];
+                }
 
-            //  Find the minimum next document id.  If there is none, we're done.
+                iop.docIteratorGetMatchPositions(argPositions[a], 0);
+                active[numActive++] = a;
+                total += tfs[a];
 
-            int minDocid = Qry.INVALID_DOCID;
+                iop.docIteratorAdvancePast(minDocid);
 
-            for (Qry q_i : this.args) {
-                if (q_i.docIteratorHasMatch(null)) {
-                    int q_iDocid = q_i.docIteratorGetMatch();
+                if (iop.docIteratorHasMatch(null)) {
+                    docids[a] = iop.docIteratorGetMatch();
+                } else {
+                    docHeap[0] = docHeap[--docHeapSize];
+                }
+
+                heapSiftDown(docHeap, docHeapSize, 0, docids);
+            }
+
+            //  A document that one argument matches keeps its locations.
+
+            if (numActive == 1) {
+                this.invertedList.appendPosting(minDocid, argPositions[active[0]], total);
+                continue;
+            }
+
+            //  Otherwise create a new posting that is the union of their
+            //  locations.
+
+            int tf = 0;
+            int locHeapSize = 0;
+
+            if (total > positions.length) {
+                positions = new int[Math.max(total, 2 * positions.length)];
+            }
+
+            //  A short union is cheaper to sort than to merge.
 
-                    if ((minDocid > q_iDocid) ||
-                            (minDocid == Qry.INVALID_DOCID)) {
-                        minDocid = q_iDocid;
-                    }
+            if (total <= MERGE_THRESHOLD) {
+                for (int j = 0; j < numActive; j++) {
+                    int a = active[j];
+                    System.arraycopy(argPositions[a], 0, positions, tf, tfs[a]);
+                    tf += tfs[a];
                 }
+
+                Arrays.sort(positions, 0, tf);
+                tf = removeDuplicates(positions, tf);
+                this.invertedList.appendPosting(minDocid, positions, tf);
+                continue;
             }
 
-            if (minDocid == Qry.INVALID_DOCID)
-                break;                // All docids have been processed.  Done.
+            for (int j = 0; j < numActive; j++) {
+                int a = active[j];
+                cur[a] = 0;
+                locs[a] = argPositions[a][0];
+                locHeap[locHeapSize] = a;
+                heapSiftUp(locHeap, locHeapSize++, locs);
+            }
 
-            //  Create a new posting that is the union of the posting lists
-            //  that match the minDocid.  Save it.
-            //  Note:  This implementation assumes that a location will not appear
-            //  in two or more arguments.  #SYN (apple apple) would break it.
+            while (locHeapSize > 0) {
+                int a = locHeap[0];
 
-            List<Integer> positions = new ArrayList<Integer>();
+                if ((tf == 0) || (positions[tf - 1] != locs[a])) {
+                    positions[tf++] = locs[a];
+                }
 
-            for (Qry q_i : this.args) {
-                if (q_i.docIteratorHasMatch(null) &&
-                        (q_i.docIteratorGetMatch() == minDocid)) {
-                    Vector<Integer> locations_i =
-                            ((QryIop) q_i).docIteratorGetMatchPosting().positions;
-                    positions.addAll(locations_i);
-                    q_i.docIteratorAdvancePast(minDocid);
+                if (++cur[a] < tfs[a]) {
+                    locs[a] = argPositions[a][cur[a]];
+                } else {
+                    locHeap[0] = locHeap[--locHeapSize];
                 }
+
+                heapSiftDown(locHeap, locHeapSize, 0, locs);
             }
 
-            Collections.sort(positions);
-            this.invertedList.appendPosting(minDocid, positions);
+            this.invertedList.appendPosting(minDocid, positions, tf);
         }
     }
 
+    /**
+     *  Remove adjacent duplicates from a sorted array.
+     *  @param positions The array.
+     *  @param n The number of values in the array.
+     *  @return The number of distinct values, which are at the start.
+     */
+    private static int removeDuplicates(int[] positions, int n) {
+
+        int distinct = (n > 0) ? 1 : 0;
+
+        for (int i = 1; i < n; i++) {
+            if (positions[i] != positions[distinct - 1]) {
+                positions[distinct++] = positions[i];
+            }
+        }
+
+        return distinct;
+    }
+
+    /**
+     *  Move the i'th entry of a min-heap of argument indexes toward the
+     *  root until its parent's key is not larger.
+     *  @param heap The heap.
+     *  @param i The index of the heap entry.
+     *  @param keys The key of each argument.
+     */
+    private static void heapSiftUp(int[] heap, int i, int[] keys) {
+
+        int a = heap[i];
+
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+
+            if (keys[heap[parent]] <= keys[a]) {
+                break;
+            }
+
+            heap[i] = heap[parent];
+            i = parent;
+        }
+
+        heap[i] = a;
+    }
+
+    /**
+     *  Move the i'th entry of a min-heap of argument indexes toward the
+     *  leaves until its children's keys are not smaller.
+     *  @param heap The heap.
+     *  @param size The number of entries in the heap.
+     *  @param i The index of the heap entry.
+     *  @param keys The key of each argument.
+     */
+    private static void heapSiftDown(int[] heap, int size, int i, int[] keys) {
+
+        if (i >= size) {
+            return;
+        }
+
+        int a = heap[i];
+
+        while (true) {
+            int child = 2 * i + 1;
+
+            if (child >= size) {
+                break;
+            }
+
+            if ((child + 1 < size) && (keys[heap[child + 1]] < keys[heap[child]])) {
+                child++;
+            }
+
+            if (keys[a] <= keys[heap[child]]) {
+                break;
+            }
+
+            heap[i] = heap[child];
+            i = child;
+        }
+
+        heap[i] = a;
+    }
 }
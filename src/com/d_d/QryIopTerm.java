@@ -2,6 +2,14 @@ package com.d_d; /**
  * Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
  */
 
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
 import java.io.IOException;
 
 /**
@@ -10,12 +18,56 @@ import java.io.IOException;
  *  "#AND (apple pie).  Although it may seem odd to use a query
  *  operator to store a term, doing so makes it easy to build
  *  structured queries with nested query operators.
- *
+ *  <p>
+ *  A TERM operator can be initialized in streaming mode (see
+ *  initializeStreaming).  In streaming mode the inverted list is not
+ *  materialized; the docIterator and locIterator read Lucene's inverted
+ *  list on demand, and df and ctf are index statistics.  Lucene's
+ *  statistics include deleted documents, so if the index has any, df
+ *  and ctf are counted from the inverted list instead; scores don't
+ *  depend on the mode.
+ *  </p>
  */
 public class QryIopTerm extends QryIop {
 
     private String term;
 
+    /**
+     *  True if the operator was initialized in streaming mode.
+     */
+    private boolean streaming = false;
+
+    /**
+     *  In streaming mode, Lucene's inverted list, or null if the term
+     *  doesn't occur in the field.
+     */
+    private DocsAndPositionsEnum postings = null;
+
+    /**
+     *  In streaming mode, the docid that postings points to now.
+     */
+    private int streamDocid = DocIdSetIterator.NO_MORE_DOCS;
+
+    /**
+     *  In streaming mode, the df and ctf of the live documents.
+     */
+    private int streamDf = 0;
+    private int streamCtf = 0;
+
+    /**
+     *  In streaming mode, the largest tf of any document, or -1 if it
+     *  hasn't been computed yet.
+     */
+    private int streamMaxTf = -1;
+
+    /**
+     *  In streaming mode, the positions of the current document are
+     *  read from postings the first time that they are needed.
+     */
+    private int[] streamPositions = new int[16];
+    private int streamPositionsDocid = Qry.INVALID_DOCID;
+    private int streamLocIndex = 0;
+
     /**
      *  The term is assumed to match the body field.
      *  @param termString A term string.
@@ -44,6 +96,376 @@ public class QryIopTerm extends QryIop {
         this.invertedList = new InvList(this.term, this.field);
     }
 
+    /**
+     *  Initialize the query operator in streaming mode.  Lucene's
+     *  inverted list is opened, but it is not copied into an InvList.
+     *  @throws IOException Error accessing the Lucene index.
+     */
+    public void initializeStreaming() throws IOException {
+
+        BytesRef termBytes = new BytesRef(this.term);
+        Term t = new Term(this.field, termBytes);
+        Bits liveDocs = MultiFields.getLiveDocs(Idx.INDEXREADER);
+
+        this.streaming = true;
+        this.postings = null;
+        this.streamDf = Idx.INDEXREADER.docFreq(t);
+        this.streamCtf = (int) Math.max(Idx.INDEXREADER.totalTermFreq(t), 0);
+        this.streamMaxTf = -1;
+        this.streamPositionsDocid = Qry.INVALID_DOCID;
+        this.streamLocIndex = 0;
+
+        //  The statistics count deleted documents, but a materialized
+        //  inverted list doesn't, so they are counted like InvList does.
+        //  Only frequencies are read, not positions.
+
+        if ((this.streamDf > 0) && (liveDocs != null)) {
+            DocsEnum docs =
+                    MultiFields.getTermDocsEnum(Idx.INDEXREADER, liveDocs,
+                            this.field, termBytes, DocsEnum.FLAG_FREQS);
+
+            this.streamDf = 0;
+            this.streamCtf = 0;
+            this.streamMaxTf = 0;
+
+            while ((docs != null) &&
+                    (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS)) {
+                int tf = docs.freq();
+                this.streamDf++;
+                this.streamCtf += tf;
+                this.streamMaxTf = Math.max(this.streamMaxTf, tf);
+            }
+        }
+
+        if (this.streamDf > 0) {
+            this.postings =
+                    MultiFields.getTermPositionsEnum(Idx.INDEXREADER, liveDocs,
+                            this.field, termBytes);
+        }
+
+        this.streamDocid = (this.postings == null) ?
+                DocIdSetIterator.NO_MORE_DOCS : this.postings.nextDoc();
+        this.postingsVisited = (this.streamDocid != DocIdSetIterator.NO_MORE_DOCS) ? 1 : 0;
+    }
+
+    /**
+     *  Return true if the operator was initialized in streaming mode.
+     *  @return True if the operator is in streaming mode.
+     */
+    private boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     *  Read the positions of the current document, if they haven't
+     *  been read already.  Lucene's inverted list only allows them to
+     *  be read once.
+     */
+    private void streamLoadPositions() {
+
+        if (this.streamPositionsDocid == this.streamDocid) {
+            return;
+        }
+
+        try {
+            int tf = this.postings.freq();
+
+            if (tf > this.streamPositions.length) {
+                this.streamPositions = new int[Math.max(tf, 2 * this.streamPositions.length)];
+            }
+
+            for (int j = 0; j < tf; j++) {
+                this.streamPositions[j] = this.postings.nextPosition();
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Error accessing the Lucene index.", ex);
+        }
+
+        this.streamPositionsDocid = this.streamDocid;
+    }
+
+    /**
+     *  Move the stream to the first document whose docid is at least
+     *  docid.  Lucene only allows the stream to move forward.
+     *  @param docid The document's internal document id
+     */
+    private void streamAdvanceTo(int docid) {
+
+        if (this.streamDocid >= docid) {
+            return;
+        }
+
+        try {
+            if (this.streamDocid + 1 == docid) {
+                this.streamDocid = this.postings.nextDoc();
+            } else {
+                this.streamDocid = this.postings.advance(docid);
+            }
+
+            if (this.streamDocid != DocIdSetIterator.NO_MORE_DOCS) {
+                this.postingsVisited++;
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Error accessing the Lucene index.", ex);
+        }
+    }
+
+    /**
+     *  Advance the query operator's internal iterator beyond the
+     *  specified document.
+     *  @param docid The document's internal document id
+     */
+    public void docIteratorAdvancePast(int docid) {
+
+        if (!this.isStreaming()) {
+            super.docIteratorAdvancePast(docid);
+            return;
+        }
+
+        if (docid == Integer.MAX_VALUE) {
+            this.docIteratorFinish();
+        } else {
+            this.streamAdvanceTo(docid + 1);
+        }
+
+        this.streamLocIndex = 0;
+    }
+
+    /**
+     *  Advance the query operator's internal iterator to the specified
+     *  document if it exists, or beyond if it doesn't.
+     *  @param docid The document's internal document id
+     */
+    public void docIteratorAdvanceTo(int docid) {
+
+        if (!this.isStreaming()) {
+            super.docIteratorAdvanceTo(docid);
+            return;
+        }
+
+        this.streamAdvanceTo(docid);
+        this.streamLocIndex = 0;
+    }
+
+    /**
+     *  Advance the query operator's internal iterator beyond the
+     *  any possible document.
+     */
+    public void docIteratorFinish() {
+
+        if (!this.isStreaming()) {
+            super.docIteratorFinish();
+            return;
+        }
+
+        this.streamDocid = DocIdSetIterator.NO_MORE_DOCS;
+    }
+
+    /**
+     *  Return the id of the document that the query operator's internal
+     *  iterator points to now.
+     *  @return The internal id of the current document.
+     */
+    public int docIteratorGetMatch() {
+        return this.isStreaming() ? this.streamDocid : super.docIteratorGetMatch();
+    }
+
+    /**
+     *  Return the term frequency for the document that the docIterator
+     *  points to now.
+     *  @return The document's term frequency.
+     */
+    public int docIteratorGetMatchTf() {
+
+        if (!this.isStreaming()) {
+            return super.docIteratorGetMatchTf();
+        }
+
+        try {
+            return this.postings.freq();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Error accessing the Lucene index.", ex);
+        }
+    }
+
+    /**
+     *  Copy the positions of the document that the docIterator points
+     *  to now into an array.
+     *  @param dest The destination array.
+     *  @param destPos The starting index in the destination array.
+     */
+    public void docIteratorGetMatchPositions(int[] dest, int destPos) {
+
+        if (!this.isStreaming()) {
+            super.docIteratorGetMatchPositions(dest, destPos);
+            return;
+        }
+
+        this.streamLoadPositions();
+        System.arraycopy(this.streamPositions, 0, dest, destPos, this.docIteratorGetMatchTf());
+    }
+
+    /**
+     *  Indicates whether the query has a matching document.
+     *  @param r A retrieval model (that is ignored - it can be null)
+     *  @return True if the query matches a document, otherwise false.
+     */
+    public boolean docIteratorHasMatch(RetrievalModel r) {
+        return this.isStreaming() ?
+                (this.streamDocid != DocIdSetIterator.NO_MORE_DOCS) :
+                super.docIteratorHasMatch(r);
+    }
+
+    /**
+     *  Get the collection term frequency (ctf) of the term.
+     *  @return The collection term frequency (ctf).
+     */
+    public int getCtf() {
+        return this.isStreaming() ? this.streamCtf : super.getCtf();
+    }
+
+    /**
+     *  Get the document frequency (df) of the term.
+     *  @return The document frequency (df).
+     */
+    public int getDf() {
+        return this.isStreaming() ? this.streamDf : super.getDf();
+    }
+
+    /**
+     *  Get the largest term frequency of any document.  In streaming
+     *  mode the inverted list hasn't been read, so the bound comes from
+     *  the index's precomputed bounds (see TermBoundStore).  If there
+     *  are none, the first call makes a separate pass over Lucene's
+     *  inverted list that reads only frequencies, not positions.
+     *  @return An upper bound on the term frequency of a document.
+     *  @throws IOException Error accessing the Lucene index.
+     */
+    public int getMaxTf() throws IOException {
+
+        if (!this.isStreaming()) {
+            return super.getMaxTf();
+        }
+
+        if (this.streamMaxTf < 0) {
+            this.streamMaxTf = (this.streamDf > 0) ? Idx.getMaxTf(this.field, this.term) : 0;
+        }
+
+        if (this.streamMaxTf < 0) {
+            this.streamMaxTf = 0;
+
+            if (this.streamDf > 0) {
+                DocsEnum docs =
+                        MultiFields.getTermDocsEnum(Idx.INDEXREADER,
+                                MultiFields.getLiveDocs(Idx.INDEXREADER),
+                                this.field, new BytesRef(this.term),
+                                DocsEnum.FLAG_FREQS);
+
+                while ((docs != null) &&
+                        (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS)) {
+                    this.streamMaxTf = Math.max(this.streamMaxTf, docs.freq());
+                }
+            }
+        }
+
+        return this.streamMaxTf;
+    }
+
+    /**
+     *  Initialize the query operator; the inverted list is materialized.
+     *  @param r A retrieval model (that is ignored)
+     *  @throws IOException Error accessing the Lucene index.
+     */
+    public void initialize(RetrievalModel r) throws IOException {
+        this.streaming = false;
+        this.postings = null;
+        super.initialize(r);
+    }
+
+    /**
+     *  Advance the query operator's internal iterator to the
+     *  next location.
+     */
+    public void locIteratorAdvance() {
+
+        if (!this.isStreaming()) {
+            super.locIteratorAdvance();
+            return;
+        }
+
+        this.streamLocIndex++;
+    }
+
+    /**
+     *  Advance the query operator's internal iterator beyond the
+     *  specified location.
+     *  @param loc The location to advance beyond.
+     */
+    public void locIteratorAdvancePast(int loc) {
+
+        if (!this.isStreaming()) {
+            super.locIteratorAdvancePast(loc);
+            return;
+        }
+
+        this.streamLoadPositions();
+        int tf = this.docIteratorGetMatchTf();
+
+        while ((this.streamLocIndex < tf) &&
+                (this.streamPositions[this.streamLocIndex] <= loc)) {
+            this.streamLocIndex++;
+        }
+    }
+
+    /**
+     *  Advance the query operator's internal iterator beyond
+     *  any possible location.
+     */
+    public void locIteratorFinish() {
+
+        if (!this.isStreaming()) {
+            super.locIteratorFinish();
+            return;
+        }
+
+        this.streamLocIndex = this.docIteratorGetMatchTf();
+    }
+
+    /**
+     *  Return the document location that the query operator's internal
+     *  iterator points to now.
+     *  @return The current location.
+     */
+    public int locIteratorGetMatch() {
+
+        if (!this.isStreaming()) {
+            return super.locIteratorGetMatch();
+        }
+
+        this.streamLoadPositions();
+        return this.streamPositions[this.streamLocIndex];
+    }
+
+    /**
+     *  Returns true if the query operator's internal iterator currently
+     *  points to a location.
+     *  @return True if the iterator currently points to a location.
+     */
+    public boolean locIteratorHasMatch() {
+        return this.isStreaming() ?
+                (this.streamLocIndex < this.docIteratorGetMatchTf()) :
+                super.locIteratorHasMatch();
+    }
+
+    /**
+     *  Get a canonical form of the query operator, which identifies its
+     *  inverted list in the InvListCache.
+     *  @return The canonical form of the query operator.
+     */
+    public String getCacheKey() {
+        return this.toString();
+    }
+
     /**
      *  Get a string version of this query operator.
      *  @return The string version of this query operator.
@@ -0,0 +1,157 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * QryMetrics records where the time of one query went:  the time of
+ * each phase of evaluation, the bytes that the query allocated, and the
+ * number of postings that its iterators visited (see addPostings).  A
+ * QryMetricsReport aggregates the metrics of a run.
+ * <p>
+ * A query is evaluated by one thread, which calls start, endPhase at
+ * the end of each phase, and stop.  Each call reads the clock once, so
+ * the overhead per query is a few calls to System.nanoTime and two
+ * calls to ThreadMXBean.
+ * </p>
+ */
+public class QryMetrics {
+
+    /**
+     * The phases of query evaluation.
+     */
+    public static final int PARSE = 0;          // Parse the query.
+    public static final int INITIALIZE = 1;     // Materialize inverted lists, compile.
+    public static final int ITERATE = 2;        // Iterate over matches, and score them.
+    public static final int SORT = 3;           // Sort the score list.
+    public static final int OUTPUT = 4;         // Format the results.
+
+    static final String[] PHASE_NAMES =
+            {"parse", "initialize", "iterate", "sort", "output"};
+
+    /**
+     * Measures allocation, or null if the JVM can't.
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATION = getAllocationBean();
+
+    final int index;
+    final String qid;
+
+    /**
+     * The time of each phase in nanoseconds, indexed by phase.
+     */
+    final long[] phaseNs = new long[PHASE_NAMES.length];
+
+    long totalNs = 0;
+    long allocatedBytes = -1;               // -1 if it can't be measured.
+    long postings = 0;
+    boolean cached = false;
+
+    private long startNs;
+    private long phaseStartNs;
+    private long startAllocatedBytes;
+
+    /**
+     * @param index The position of the query in the query file.
+     * @param qid   The query id.
+     */
+    public QryMetrics(int index, String qid) {
+        this.index = index;
+        this.qid = qid;
+    }
+
+    /**
+     * Start measuring the query, and its first phase.  It must be
+     * called by the thread that evaluates the query.
+     */
+    public void start() {
+
+        if (ALLOCATION != null) {
+            this.startAllocatedBytes =
+                    ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        this.startNs = System.nanoTime();
+        this.phaseStartNs = this.startNs;
+    }
+
+    /**
+     * End a phase.  The next phase starts now.
+     *
+     * @param phase The phase, e.g., PARSE.
+     */
+    public void endPhase(int phase) {
+        long now = System.nanoTime();
+        this.phaseNs[phase] += now - this.phaseStartNs;
+        this.phaseStartNs = now;
+    }
+
+    /**
+     * Stop measuring the query.
+     */
+    public void stop() {
+
+        this.totalNs = System.nanoTime() - this.startNs;
+
+        if (ALLOCATION != null) {
+            this.allocatedBytes =
+                    ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId()) -
+                            this.startAllocatedBytes;
+        }
+    }
+
+    /**
+     * Record that the results came from the result cache.
+     */
+    public void setCached() {
+        this.cached = true;
+    }
+
+    /**
+     * Count the postings that the QryIop operators of a query visited
+     * (see QryIop.getPostingsVisited), i.e., that their docIterators
+     * stopped at while the inverted lists were built and scored.
+     * Postings that were skipped, e.g., by dynamic pruning, and the
+     * postings of inverted lists that came from the InvListCache,
+     * aren't counted.
+     *
+     * @param q A query that has been evaluated.
+     */
+    public void addPostings(Qry q) {
+
+        if (q instanceof QryIop) {
+            this.postings += ((QryIop) q).getPostingsVisited();
+        } else {
+            for (int i = 0; i < q.args.size(); i++) {
+                this.addPostings(q.args.get(i));
+            }
+        }
+    }
+
+    /**
+     * Get the ThreadMXBean's allocation counters, if the JVM has them.
+     *
+     * @return The ThreadMXBean, or null.
+     */
+    private static com.sun.management.ThreadMXBean getAllocationBean() {
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+
+            try {
+                if (sunBean.isThreadAllocatedMemorySupported()) {
+                    sunBean.setThreadAllocatedMemoryEnabled(true);
+                    return sunBean;
+                }
+            } catch (UnsupportedOperationException ex) {
+                //  Allocation isn't measured.
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,297 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * QryMetricsReport aggregates the QryMetrics of the queries in a run
+ * into histograms, and writes them and the metrics of each query as a
+ * JSON report.  Queries may be added by several threads at once.
+ * <p>
+ * Report format:
+ * </p>
+ * <pre>
+ *   {
+ *     "queries": n,
+ *     "summary": {
+ *       "total_ns": {"count": ..., "min": ..., "mean": ..., "p50": ...,
+ *                    "p90": ..., "p99": ..., "p999": ..., "max": ...},
+ *       "parse_ns": {...}, "initialize_ns": {...}, "iterate_ns": {...},
+ *       "sort_ns": {...}, "output_ns": {...},
+ *       "allocated_bytes": {...}, "postings": {...}
+ *     },
+ *     "query": [
+ *       {"qid": "...", "cached": false, "total_ns": ..., "parse_ns": ..., ...},
+ *       ...
+ *     ]
+ *   }
+ * </pre>
+ * <p>
+ * Queries are listed in query file order.  Percentiles are within 1/64
+ * of the exact values (see Histogram).  postings is the number of
+ * postings that the query's iterators visited (see
+ * QryMetrics.addPostings), not the length of its inverted lists.
+ * </p>
+ */
+public class QryMetricsReport {
+
+    /**
+     * The percentiles that are reported, and their names.
+     */
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final ArrayList<QryMetrics> queries = new ArrayList<QryMetrics>();
+
+    private final Histogram total = new Histogram();
+    private final Histogram[] phases = new Histogram[QryMetrics.PHASE_NAMES.length];
+    private final Histogram allocatedBytes = new Histogram();
+    private final Histogram postings = new Histogram();
+
+    public QryMetricsReport() {
+        for (int i = 0; i < this.phases.length; i++) {
+            this.phases[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Add the metrics of a query that has been stopped.
+     *
+     * @param m The metrics of the query.
+     */
+    public synchronized void add(QryMetrics m) {
+
+        this.queries.add(m);
+        this.total.record(m.totalNs);
+
+        for (int i = 0; i < this.phases.length; i++) {
+            this.phases[i].record(m.phaseNs[i]);
+        }
+
+        if (m.allocatedBytes >= 0) {
+            this.allocatedBytes.record(m.allocatedBytes);
+        }
+
+        this.postings.record(m.postings);
+    }
+
+    /**
+     * Write the report.
+     *
+     * @param path The report file.
+     * @throws IOException Error writing the file.
+     */
+    public synchronized void write(String path) throws IOException {
+
+        //  Queries are added when they finish, which isn't always in
+        //  query file order.
+
+        Collections.sort(this.queries, new Comparator<QryMetrics>() {
+            public int compare(QryMetrics a, QryMetrics b) {
+                return (a.index < b.index) ? -1 : ((a.index == b.index) ? 0 : 1);
+            }
+        });
+
+        StringBuilder json = new StringBuilder();
+
+        json.append("{\n  \"queries\": ").append(this.queries.size()).append(",\n");
+        json.append("  \"summary\": {\n");
+        appendHistogram(json, "total_ns", this.total);
+
+        for (int i = 0; i < this.phases.length; i++) {
+            json.append(",\n");
+            appendHistogram(json, QryMetrics.PHASE_NAMES[i] + "_ns", this.phases[i]);
+        }
+
+        json.append(",\n");
+        appendHistogram(json, "allocated_bytes", this.allocatedBytes);
+        json.append(",\n");
+        appendHistogram(json, "postings", this.postings);
+        json.append("\n  },\n  \"query\": [");
+
+        for (int i = 0; i < this.queries.size(); i++) {
+            QryMetrics m = this.queries.get(i);
+
+            json.append((i == 0) ? "\n" : ",\n");
+            json.append("    {\"qid\": ");
+            appendString(json, m.qid);
+            json.append(", \"cached\": ").append(m.cached);
+            json.append(", \"total_ns\": ").append(m.totalNs);
+
+            for (int j = 0; j < m.phaseNs.length; j++) {
+                json.append(", \"").append(QryMetrics.PHASE_NAMES[j]).append("_ns\": ")
+                        .append(m.phaseNs[j]);
+            }
+
+            json.append(", \"allocated_bytes\": ").append(m.allocatedBytes);
+            json.append(", \"postings\": ").append(m.postings).append('}');
+        }
+
+        json.append("\n  ]\n}\n");
+
+        Writer output = new BufferedWriter(new FileWriter(path));
+
+        try {
+            output.write(json.toString());
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Append a histogram summary to a JSON object.
+     */
+    private static void appendHistogram(StringBuilder json, String name, Histogram h) {
+
+        json.append("    \"").append(name).append("\": {\"count\": ").append(h.count)
+                .append(", \"min\": ").append(h.getMin())
+                .append(", \"mean\": ").append(h.getMean());
+
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            json.append(", \"").append(PERCENTILE_NAMES[i]).append("\": ")
+                    .append(h.getValueAtPercentile(PERCENTILES[i]));
+        }
+
+        json.append(", \"max\": ").append(h.max).append('}');
+    }
+
+    /**
+     * Append a JSON string.
+     */
+    private static void appendString(StringBuilder json, String s) {
+
+        json.append('"');
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+
+            if ((c == '"') || (c == '\\')) {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+
+        json.append('"');
+    }
+
+    /**
+     * A one-line summary of query latency, for the console.
+     *
+     * @return The summary.
+     */
+    public synchronized String toString() {
+
+        StringBuilder s = new StringBuilder();
+
+        s.append("queries ").append(this.total.count);
+
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            s.append(", ").append(PERCENTILE_NAMES[i]).append(' ')
+                    .append(String.format("%.3f ms", this.total.getValueAtPercentile(PERCENTILES[i]) / 1e6));
+        }
+
+        s.append(", max ").append(String.format("%.3f ms", this.total.max / 1e6));
+
+        return s.toString();
+    }
+
+    /**
+     * A histogram of non-negative long values in the style of
+     * HdrHistogram:  values below 128 have their own buckets, and each
+     * larger power of 2 is divided into 64 buckets, so a bucket is
+     * never wider than 1/64 of its values.  Recording a value is O(1),
+     * and the histogram is small (3712 counts) whatever the range.
+     */
+    private static final class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 7;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;      // 128
+        private static final int HALF = SUB_BUCKETS / 2;                    // 64
+
+        private final long[] counts = new long[SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF];
+
+        long count = 0;
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+
+        void record(long value) {
+
+            value = Math.max(value, 0);
+            this.counts[bucket(value)]++;
+            this.count++;
+            this.sum += value;
+            this.min = Math.min(this.min, value);
+            this.max = Math.max(this.max, value);
+        }
+
+        long getMin() {
+            return (this.count == 0) ? 0 : this.min;
+        }
+
+        long getMean() {
+            return (this.count == 0) ? 0 : this.sum / this.count;
+        }
+
+        /**
+         * Get the largest value in the bucket that contains the value
+         * at a percentile, or max if it is smaller.
+         */
+        long getValueAtPercentile(double percentile) {
+
+            if (this.count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * this.count));
+            long seen = 0;
+
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), this.max);
+                }
+            }
+
+            return this.max;
+        }
+
+        /**
+         * The bucket of a value.  For a value of 128 or more, shift is
+         * chosen so that value &gt;&gt;&gt; shift is in [64, 128).
+         */
+        private static int bucket(long value) {
+
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+
+            int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+
+            return SUB_BUCKETS + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+        }
+
+        /**
+         * The largest value in a bucket.
+         */
+        private static long highestValue(int bucket) {
+
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+
+            int shift = (bucket - SUB_BUCKETS) / HALF + 1;
+            long sub = (bucket - SUB_BUCKETS) % HALF + HALF;
+
+            return ((sub + 1) << shift) - 1;
+        }
+    }
+}
@@ -2,7 +2,6 @@ package com.d_d;/*
  *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
  */
 
-import org.apache.lucene.analysis.Analyzer.TokenStreamComponents;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.util.Version;
@@ -10,7 +9,10 @@ import org.apache.lucene.util.Version;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -27,13 +29,18 @@ import java.util.List;
  * <li>createOperator: Use a string (e.g., #and) to create a node
  * (e.g., QrySopAnd).
  * <p>
- * <li>parseString:  If the operator supports term weights
+ * <li>parseOperator:  If the operator supports term weights
  * (e.g., #wsum (0.5 apple 1 pie)), you must modify this method.
  * For these operators, two substrings (weight and term) are
- * popped from the query string at each step, instead of one.
+ * read from the query string at each step, instead of one.
  * </ul>
  * <p>
  * Add new document fields to the parser by modifying createTerms.
+ * </p><p>
+ * The parser may be used by several threads at once.  Each thread
+ * reuses its own analysis chain (the Analyzer keeps one per thread),
+ * and the terms that recent tokens produced are remembered, so a
+ * token that was seen before isn't analyzed again.
  * </p>
  */
 
@@ -44,6 +51,22 @@ public class QryParser {
     private static final EnglishAnalyzerConfigurable ANALYZER =
             new EnglishAnalyzerConfigurable(Version.LUCENE_43);
 
+    /**
+     *  The maximum number of tokens whose terms are remembered.
+     */
+    private static final int TERM_MEMO_SIZE = 100000;
+
+    /**
+     *  The terms that recently analyzed tokens produced, in order from
+     *  least to most recently used.  Access is synchronized on the map.
+     */
+    private static final LinkedHashMap<String, String[]> TERM_MEMO =
+            new LinkedHashMap<String, String[]>(1024, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                    return this.size() > TERM_MEMO_SIZE;
+                }
+            };
+
     //  -------------------- Initialization -------------------------
 
     static {
@@ -55,22 +78,64 @@ public class QryParser {
     //  ----------- Methods, in alphabetical order ------------------
 
     /**
-     * Count the number of occurrences of character c in string s.
+     * Analyze part of a query string, or get the terms that it produced
+     * the last time that it was analyzed.  The array is shared, so it
+     * must not be changed.
      *
-     * @param c A character.
-     * @param s A string.
+     * @param query String containing query.
+     * @return Array of query tokens
+     * @throws IOException Error accessing the Lucene index.
      */
-    private static int countChars(String s, char c) {
+    private static String[] analyze(String query) throws IOException {
 
-        int count = 0;
+        String[] terms;
 
-        for (int i = 0; i < s.length(); i++) {
-            if (s.charAt(i) == c) {
-                count++;
+        synchronized (TERM_MEMO) {
+            terms = TERM_MEMO.get(query);
+        }
+
+        if (terms == null) {
+            terms = analyzeString(query);
+
+            synchronized (TERM_MEMO) {
+                TERM_MEMO.put(query, terms);
+            }
+        }
+
+        return terms;
+    }
+
+    /**
+     * Analyze part of a query string with the calling thread's
+     * analysis chain.
+     *
+     * @param query String containing query.
+     * @return Array of query tokens
+     * @throws IOException Error accessing the Lucene index.
+     */
+    private static String[] analyzeString(String query) throws IOException {
+
+        TokenStream tokenStream =
+                ANALYZER.tokenStream("dummy", new StringReader(query));
+
+        CharTermAttribute charTermAttribute =
+                tokenStream.addAttribute(CharTermAttribute.class);
+        tokenStream.reset();
+
+        List<String> tokens = new ArrayList<String>();
+
+        try {
+            while (tokenStream.incrementToken()) {
+                String term = charTermAttribute.toString();
+                tokens.add(term);
             }
+
+            tokenStream.end();
+        } finally {
+            tokenStream.close();
         }
 
-        return count;
+        return tokens.toArray(new String[tokens.size()]);
     }
 
 
@@ -111,6 +176,7 @@ public class QryParser {
                 break;
 
             case "#and":
+            case "#combine":
                 operator = new QrySopAnd();
                 break;
 
@@ -118,6 +184,10 @@ public class QryParser {
                 operator = new QryIopNear(operatorDistance);
                 break;
 
+            case "#sum":
+                operator = new QrySopSum();
+                break;
+
             default:
                 syntaxError("Unknown query operator " + operatorName);
         }
@@ -165,7 +235,7 @@ public class QryParser {
         //  just in case a term (e.g., "near-death") gets tokenized into
         //  multiple terms (e.g., "near" and "death").
 
-        String t[] = tokenizeString(term);
+        String t[] = analyze(term);
         Qry terms[] = new Qry[t.length];
 
         for (int j = 0; j < t.length; j++) {
@@ -194,28 +264,46 @@ public class QryParser {
     }
 
     /**
-     * Get the index of the right parenenthesis that balances the
-     * left-most parenthesis.  Return -1 if it doesn't exist.
+     * Whether a character separates terms.
+     *
+     * @param c A character.
+     * @return True if c is a space, tab, newline, or carriage return.
+     */
+    private static boolean isSpace(char c) {
+        return (c == ' ') || (c == '\t') || (c == '\n') || (c == '\r');
+    }
+
+
+    /**
+     * Find the right parenthesis that balances each left parenthesis,
+     * in one pass over a query string.
      *
      * @param s A string containing a query.
+     * @return An array whose i'th element is the index of the right
+     * parenthesis that balances a left parenthesis at index i, or null
+     * if the parentheses aren't balanced.
      */
-    private static int indexOfBalencingParen(String s) {
+    private static int[] matchParentheses(String s) {
 
+        int[] match = new int[s.length()];
+        int[] open = new int[16];
         int depth = 0;
 
         for (int i = 0; i < s.length(); i++) {
             if (s.charAt(i) == '(') {
-                depth++;
+                if (depth == open.length) {
+                    open = Arrays.copyOf(open, 2 * depth);
+                }
+                open[depth++] = i;
             } else if (s.charAt(i) == ')') {
-                depth--;
-
                 if (depth == 0) {
-                    return i;
+                    return null;
                 }
+                match[open[--depth]] = i;
             }
         }
 
-        return -1;
+        return (depth == 0) ? match : null;
     }
 
 
@@ -272,53 +360,44 @@ public class QryParser {
 
 
     /**
-     * Parse a query string into a query tree.
+     * Parse a query operator and its arguments.  The query string is
+     * read once, left to right:  at each step, the next argument (a
+     * term or a subquery) is read and added to the query tree.
+     * Subqueries are handled via recursion.
      *
-     * @param queryString The query string, in an Indri-style query
-     *                    language.
-     * @return Qry The query tree for the parsed query.
+     * @param s     The query string.
+     * @param match The balancing parenthesis of each left parenthesis.
+     * @param start The index of the operator name.
+     * @param open  The index of the left parenthesis after the name.
+     * @return Qry The query tree for the operator.
      * @throws IOException              Error accessing the Lucene index.
      * @throws IllegalArgumentException Query syntax error.
      */
-    private static Qry parseString(String queryString)
+    private static Qry parseOperator(String s, int[] match, int start, int open)
             throws IOException, IllegalArgumentException {
 
-        //  This simple parser is sensitive to parenthensis placement, so
-        //  check for basic errors first.
-
-        queryString = queryString.trim();    // The last character should be ')'
-
-        if ((countChars(queryString, '(') == 0) ||
-                (countChars(queryString, '(') != countChars(queryString, ')')) ||
-                (indexOfBalencingParen(queryString) != (queryString.length() - 1))) {
-            syntaxError("Missing, unbalanced, or misplaced parentheses");
-        }
-
-        //  The query language is prefix-oriented, so the query string can
-        //  be processed left to right.  At each step, a substring is
-        //  popped from the head (left) of the string, and is converted to
-        //  a Qry object that is added to the query tree.  Subqueries are
-        //  handled via recursion.
-
-        //  Find the left-most query operator and start the query tree.
+        Qry queryTree = createOperator(s.substring(start, open).trim());
 
-        String[] substrings = queryString.split("[(]", 2);
-        Qry queryTree = createOperator(substrings[0].trim());
+        //  The arguments are between the parentheses.  pos is the start
+        //  of the part that hasn't been processed yet.
 
-        //  Start consuming queryString by removing the query operator and
-        //  its terminating ')'.  queryString is always the part of the
-        //  query that hasn't been processed yet.
-
-        queryString = substrings[1];
-        queryString =
-                queryString.substring(0, queryString.lastIndexOf(")")).trim();
+        int pos = open + 1;
+        int close = match[open];
 
         //  Each pass below handles one argument to the query operator.
         //  Note: An argument can be a token that produces multiple terms
         //  (e.g., "near-death") or a subquery (e.g., "#and (a b c)").
         //  Recurse on subqueries.
 
-        while (queryString.length() > 0) {
+        while (true) {
+
+            while ((pos < close) && (s.charAt(pos) <= ' ')) {
+                pos++;
+            }
+
+            if (pos == close) {
+                break;
+            }
 
             //  If the operator uses weighted query arguments, each pass of
             //  this loop must handle "weight arg".  Handle the weight first.
@@ -328,18 +407,31 @@ public class QryParser {
             //  Now handle the argument (which could be a subquery).
 
             Qry[] qargs = null;
-            PopData<String, String> p;
 
-            if (queryString.charAt(0) == '#') {    // Subquery
-                p = popSubquery(queryString);
+            if (s.charAt(pos) == '#') {    // Subquery
+                int subOpen = pos;
+
+                while ((subOpen < close) && (s.charAt(subOpen) != '(')) {
+                    subOpen++;
+                }
+
+                if (subOpen == close) {
+                    syntaxError("Missing, unbalanced, or misplaced parentheses");
+                }
+
                 qargs = new Qry[1];
-                qargs[0] = parseString(p.getPopped());
+                qargs[0] = parseOperator(s, match, pos, subOpen);
+                pos = match[subOpen] + 1;
             } else {                    // Term
-                p = popTerm(queryString);
-                qargs = createTerms(p.getPopped());
-            }
+                int end = pos;
+
+                while ((end < close) && !isSpace(s.charAt(end))) {
+                    end++;
+                }
 
-            queryString = p.getRemaining().trim();    // Consume the arg
+                qargs = createTerms(s.substring(pos, end));
+                pos = end;
+            }
 
             //  Add the argument(s) to the query tree.
 
@@ -356,50 +448,35 @@ public class QryParser {
 
 
     /**
-     * Remove a subQuery from an argument string.  Return the subquery
-     * and the modified argument string.
+     * Parse a query string into a query tree.
      *
-     * @param String A partial query argument string, e.g., "#and(a b)
-     *               c d".
-     * @return PopData<String,String> The subquery string and the
-     * modified argString (e.g., "#and(a b)" and "c d".
+     * @param queryString The query string, in an Indri-style query
+     *                    language.
+     * @return Qry The query tree for the parsed query.
+     * @throws IOException              Error accessing the Lucene index.
+     * @throws IllegalArgumentException Query syntax error.
      */
-    static private PopData<String, String> popSubquery(String argString) {
-
-        int i = indexOfBalencingParen(argString);
-
-        if (i < 0) {        // Query syntax error.  The parser
-            i = argString.length();    // handles it.  Here, just don't fail.
-        }
-
-        String subquery = argString.substring(0, i + 1);
-        argString = argString.substring(i + 1);
-
-        return new PopData<String, String>(subquery, argString);
-    }
+    private static Qry parseString(String queryString)
+            throws IOException, IllegalArgumentException {
 
+        //  This simple parser is sensitive to parenthensis placement, so
+        //  check for basic errors first.
 
-    /**
-     * Remove a term from an argument string.  Return the term and
-     * the modified argument string.
-     *
-     * @param String A partial query argument string, e.g., "a b c d".
-     * @return PopData<String,String>
-     * The term string and the modified argString (e.g., "a" and
-     * "b c d".
-     */
-    static private PopData<String, String> popTerm(String argString) {
+        queryString = queryString.trim();    // The last character should be ')'
 
-        String[] substrings = argString.split("[ \t\n\r]+", 2);
-        String token = substrings[0];
+        int[] match = matchParentheses(queryString);
+        int open = queryString.indexOf('(');
 
-        if (substrings.length < 2) {    //  Is this the last argument?
-            argString = "";
-        } else {
-            argString = substrings[1];
+        if ((match == null) || (open < 0) ||
+                (match[open] != (queryString.length() - 1))) {
+            syntaxError("Missing, unbalanced, or misplaced parentheses");
         }
 
-        return new PopData<String, String>(substrings[0], argString);
+        //  The query language is prefix-oriented, so the query string can
+        //  be processed left to right.  The left-most query operator
+        //  starts the query tree.
+
+        return parseOperator(queryString, match, 0, open);
     }
 
 
@@ -425,23 +502,7 @@ public class QryParser {
      * @throws IOException Error accessing the Lucene index.
      */
     public static String[] tokenizeString(String query) throws IOException {
-
-        TokenStreamComponents comp =
-                ANALYZER.createComponents("dummy", new StringReader(query));
-        TokenStream tokenStream = comp.getTokenStream();
-
-        CharTermAttribute charTermAttribute =
-                tokenStream.addAttribute(CharTermAttribute.class);
-        tokenStream.reset();
-
-        List<String> tokens = new ArrayList<String>();
-
-        while (tokenStream.incrementToken()) {
-            String term = charTermAttribute.toString();
-            tokens.add(term);
-        }
-
-        return tokens.toArray(new String[tokens.size()]);
+        return analyze(query).clone();
     }
 
 
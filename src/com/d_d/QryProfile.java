@@ -0,0 +1,427 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * QryProfile shows which operators of a query tree took the time.
+ * wrap replaces each operator of a parsed query with a profiling
+ * operator that forwards every call to the original operator, and
+ * counts and times them.  format prints the tree, one operator per
+ * line, annotated with:
+ * <ul>
+ *   <li>time:  wall time in the operator and its arguments, and self,
+ *       the part that isn't in its arguments;</li>
+ *   <li>init:  initialization time, e.g., to read or build inverted
+ *       lists;</li>
+ *   <li>hasMatch and advance:  docIterator calls;</li>
+ *   <li>matches and scores (QrySop):  the documents that the
+ *       docIterator stopped at, and the scores that were calculated;</li>
+ *   <li>df and ctf (QryIop):  the size of the inverted list;</li>
+ *   <li>postings (QryIop):  the postings that the docIterator stopped
+ *       at, and positions, the locations that were read.</li>
+ * </ul>
+ * <p>
+ * Profiling operators aren't compiled by QryScorer, and every call is
+ * timed, so a profiled query is slower than usual; compare operators
+ * to each other, not to unprofiled runs.  An operator whose inverted
+ * list came from the InvListCache doesn't initialize its arguments, so
+ * they are shown as not initialized.
+ * </p><p>
+ * A QryProfile object collects the formatted profiles of a run, which
+ * may be added by several threads at once, and writes them in query
+ * file order.
+ * </p>
+ */
+public class QryProfile {
+
+    /**
+     * The formatted profiles of the run, indexed by position in the
+     * query file.
+     */
+    private final Map<Integer, String> profiles = new TreeMap<Integer, String>();
+
+    /**
+     * Add the profile of a query.
+     *
+     * @param index   The position of the query in the query file.
+     * @param profile The formatted profile.
+     */
+    public synchronized void add(int index, String profile) {
+        this.profiles.put(index, profile);
+    }
+
+    /**
+     * Write the profiles in query file order.
+     *
+     * @param path The profile file.
+     * @throws IOException Error writing the file.
+     */
+    public synchronized void write(String path) throws IOException {
+
+        Writer output = new BufferedWriter(new FileWriter(path));
+
+        try {
+            for (String profile : this.profiles.values()) {
+                output.write(profile);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Replace each operator of a query with a profiling operator.
+     *
+     * @param q A query that hasn't been initialized.
+     * @return The profiled query.
+     */
+    public static Qry wrap(Qry q) {
+        return wrap(q, null);
+    }
+
+    private static Qry wrap(Qry q, Qry parent) {
+
+        for (int i = 0; i < q.args.size(); i++) {
+            q.args.set(i, wrap(q.args.get(i), q));
+        }
+
+        if (q instanceof QrySop) {
+            return new Sop((QrySop) q);
+        } else {
+
+            //  QrySopScore streams the inverted list of a term argument
+            //  (see QrySopScore.initialize), so the profiling operator
+            //  must do the same.
+
+            return new Iop((QryIop) q,
+                    (q instanceof QryIopTerm) && (parent instanceof QrySopScore));
+        }
+    }
+
+    /**
+     * Format the profile of a query that wrap returned, after it has
+     * been evaluated.
+     *
+     * @param output The text to append to.
+     * @param q      The profiled query.
+     */
+    public static void format(StringBuilder output, Qry q) {
+        format(output, q, "");
+    }
+
+    private static void format(StringBuilder output, Qry q, String indent) {
+
+        Counts c = (q instanceof Sop) ? ((Sop) q).counts : ((Iop) q).counts;
+        Qry d = (q instanceof Sop) ? ((Sop) q).q : ((Iop) q).q;
+
+        output.append(indent);
+        output.append((d instanceof QryIopTerm) ? d.toString() : d.getDisplayName());
+
+        if (c.initializeCalls == 0) {
+            output.append("  not initialized\n");
+            return;
+        }
+
+        long childNs = 0;
+
+        for (int i = 0; i < q.args.size(); i++) {
+            Qry q_i = q.args.get(i);
+            childNs += ((q_i instanceof Sop) ? ((Sop) q_i).counts : ((Iop) q_i).counts).getNs();
+        }
+
+        output.append(String.format("  time %.3f ms  self %.3f ms  init %.3f ms",
+                c.getNs() / 1e6, (c.getNs() - childNs) / 1e6, c.initializeNs / 1e6));
+
+        if (q instanceof Iop) {
+            QryIop iop = (QryIop) d;
+            output.append("  df ").append(iop.getDf()).append("  ctf ").append(iop.getCtf());
+        }
+
+        output.append("  hasMatch ").append(c.hasMatchCalls)
+                .append("  advance ").append(c.advanceCalls);
+
+        if (q instanceof Sop) {
+            output.append("  matches ").append(c.postings)
+                    .append("  scores ").append(c.scores);
+        } else {
+            output.append("  postings ").append(c.postings)
+                    .append("  positions ").append(c.positions);
+        }
+
+        output.append('\n');
+
+        for (int i = 0; i < q.args.size(); i++) {
+            format(output, q.args.get(i), indent + "  ");
+        }
+    }
+
+    /**
+     * The counts and times of one profiled operator.
+     */
+    private static final class Counts {
+        long initializeCalls = 0;
+        long initializeNs = 0;
+        long iterateNs = 0;
+        long hasMatchCalls = 0;
+        long advanceCalls = 0;
+        long scores = 0;
+        long postings = 0;              // Or matching documents, for QrySop.
+        long positions = 0;
+        int lastDocid = Qry.INVALID_DOCID;
+
+        long getNs() {
+            return this.initializeNs + this.iterateNs;
+        }
+
+        /**
+         * Count a docIteratorHasMatch result.  A posting (matching
+         * document) is counted the first time that the iterator stops
+         * at it.
+         */
+        boolean hasMatch(boolean match, Qry q) {
+            this.hasMatchCalls++;
+
+            if (match) {
+                int docid = q.docIteratorGetMatch();
+
+                if (docid != this.lastDocid) {
+                    this.postings++;
+                    this.lastDocid = docid;
+                }
+            }
+
+            return match;
+        }
+    }
+
+    /**
+     * Profiles a QrySop operator.  Its arguments are the original
+     * operator's arguments.
+     */
+    private static final class Sop extends QrySop {
+
+        private final QrySop q;
+        private final Counts counts = new Counts();
+
+        Sop(QrySop q) {
+            this.q = q;
+            this.args = q.args;
+            this.setDisplayName(q.getDisplayName());
+        }
+
+        public void initialize(RetrievalModel r) throws IOException {
+            long start = System.nanoTime();
+            this.q.initialize(r);
+            this.counts.initializeNs += System.nanoTime() - start;
+            this.counts.initializeCalls++;
+        }
+
+        public boolean docIteratorHasMatch(RetrievalModel r) {
+            long start = System.nanoTime();
+            boolean match = this.q.docIteratorHasMatch(r);
+            this.counts.iterateNs += System.nanoTime() - start;
+            return this.counts.hasMatch(match, this.q);
+        }
+
+        public void docIteratorAdvancePast(int docid) {
+            long start = System.nanoTime();
+            this.q.docIteratorAdvancePast(docid);
+            this.counts.iterateNs += System.nanoTime() - start;
+            this.counts.advanceCalls++;
+        }
+
+        public void docIteratorAdvanceTo(int docid) {
+            long start = System.nanoTime();
+            this.q.docIteratorAdvanceTo(docid);
+            this.counts.iterateNs += System.nanoTime() - start;
+            this.counts.advanceCalls++;
+        }
+
+        public int docIteratorGetMatch() {
+            return this.q.docIteratorGetMatch();
+        }
+
+        protected boolean docIteratorHasMatchCache() {
+            return this.q.docIteratorHasMatchCache();
+        }
+
+        public double getScore(RetrievalModel r) throws IOException {
+            long start = System.nanoTime();
+            double score = this.q.getScore(r);
+            this.counts.iterateNs += System.nanoTime() - start;
+            this.counts.scores++;
+            return score;
+        }
+
+        public double getDefaultScore(RetrievalModel r, int docid) throws IOException {
+            long start = System.nanoTime();
+            double score = this.q.getDefaultScore(r, docid);
+            this.counts.iterateNs += System.nanoTime() - start;
+            this.counts.scores++;
+            return score;
+        }
+
+        public double getMaxScore(RetrievalModel r) throws IOException {
+            return this.q.getMaxScore(r);
+        }
+
+        public void setMinCompetitiveScore(RetrievalModel r, double minScore)
+                throws IOException {
+            this.q.setMinCompetitiveScore(r, minScore);
+        }
+
+        public long getDfEstimate() {
+            return this.q.getDfEstimate();
+        }
+
+        public String getCacheKey() {
+            return this.q.getCacheKey();
+        }
+
+        public String toString() {
+            return this.q.toString();
+        }
+    }
+
+    /**
+     * Profiles a QryIop operator.  Its arguments are the original
+     * operator's arguments.  Its own inverted list isn't used.
+     */
+    private static final class Iop extends QryIop {
+
+        private final QryIop q;
+        private final Counts counts = new Counts();
+
+        /**
+         * True if the original operator is a term that a SCORE
+         * operator may stream.
+         */
+        private final boolean streamable;
+
+        Iop(QryIop q, boolean streamable) {
+            this.q = q;
+            this.args = q.args;
+            this.field = q.getField();
+            this.streamable = streamable;
+            this.setDisplayName(q.getDisplayName());
+        }
+
+        protected void evaluate() {
+        }
+
+        public void initialize(RetrievalModel r) throws IOException {
+            long start = System.nanoTime();
+
+            if (this.streamable && r.getStreamingTerms() &&
+                    !Idx.getInvListCache().isEnabled()) {
+                ((QryIopTerm) this.q).initializeStreaming();
+            } else {
+                this.q.initialize(r);
+            }
+
+            this.counts.initializeNs += System.nanoTime() - start;
+            this.counts.initializeCalls++;
+        }
+
+        public boolean docIteratorHasMatch(RetrievalModel r) {
+            long start = System.nanoTime();
+            boolean match = this.q.docIteratorHasMatch(r);
+            this.counts.iterateNs += System.nanoTime() - start;
+            return this.counts.hasMatch(match, this.q);
+        }
+
+        public void docIteratorAdvancePast(int docid) {
+            long start = System.nanoTime();
+            this.q.docIteratorAdvancePast(docid);
+            this.counts.iterateNs += System.nanoTime() - start;
+            this.counts.advanceCalls++;
+        }
+
+        public void docIteratorAdvanceTo(int docid) {
+            long start = System.nanoTime();
+            this.q.docIteratorAdvanceTo(docid);
+            this.counts.iterateNs += System.nanoTime() - start;
+            this.counts.advanceCalls++;
+        }
+
+        public void docIteratorFinish() {
+            this.q.docIteratorFinish();
+        }
+
+        public int docIteratorGetMatch() {
+            return this.q.docIteratorGetMatch();
+        }
+
+        protected boolean docIteratorHasMatchCache() {
+            return this.q.docIteratorHasMatchCache();
+        }
+
+        public int docIteratorGetMatchTf() {
+            return this.q.docIteratorGetMatchTf();
+        }
+
+        public void docIteratorGetMatchPositions(int[] dest, int destPos) {
+            long start = System.nanoTime();
+            this.q.docIteratorGetMatchPositions(dest, destPos);
+            this.counts.iterateNs += System.nanoTime() - start;
+            this.counts.positions += this.q.docIteratorGetMatchTf();
+        }
+
+        public void locIteratorAdvance() {
+            this.q.locIteratorAdvance();
+        }
+
+        public void locIteratorAdvancePast(int loc) {
+            this.q.locIteratorAdvancePast(loc);
+        }
+
+        public void locIteratorFinish() {
+            this.q.locIteratorFinish();
+        }
+
+        public int locIteratorGetMatch() {
+            this.counts.positions++;
+            return this.q.locIteratorGetMatch();
+        }
+
+        public boolean locIteratorHasMatch() {
+            return this.q.locIteratorHasMatch();
+        }
+
+        public int getCtf() {
+            return this.q.getCtf();
+        }
+
+        public int getDf() {
+            return this.q.getDf();
+        }
+
+        public long getDfEstimate() {
+            return this.q.getDfEstimate();
+        }
+
+        public long getPostingsVisited() {
+            return this.q.getPostingsVisited();
+        }
+
+        public int getMaxTf() throws IOException {
+            return this.q.getMaxTf();
+        }
+
+        public String getField() {
+            return this.q.getField();
+        }
+
+        public String getCacheKey() {
+            return this.q.getCacheKey();
+        }
+
+        public String toString() {
+            return this.q.toString();
+        }
+    }
+}
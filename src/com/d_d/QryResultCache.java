@@ -0,0 +1,357 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.DirectoryReader;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * QryResultCache keeps the top-ranked documents of recent queries, so
+ * that a query that is repeated isn't evaluated again.
+ * <p>
+ * Results are keyed by the canonical form of the retrieval model and of
+ * the optimized query tree (see RetrievalModel.getCacheKey and
+ * Qry.getCacheKey), so queries that differ only in case or spacing
+ * share results.  Each entry stores the sorted docids and scores of
+ * the top documents and the number of documents that were requested.
+ * The cache has a budget in bytes; when it is full, the least recently
+ * used results are evicted.
+ * </p><p>
+ * The cache can be saved to a file and loaded by a later run, so a
+ * restarted process starts warm.  A saved cache is ignored if the index
+ * has changed.  The cache may be used by several threads at once.
+ * </p><p>
+ * File format (big-endian):
+ * </p>
+ * <pre>
+ *   int     MAGIC
+ *   long    index version
+ *   int     maxDoc
+ *   int     number of entries, least recently used first
+ *   each entry:
+ *     int     keyLength
+ *     byte    key[keyLength]    UTF-8
+ *     int     depth (the number of documents requested)
+ *     int     size
+ *     int     docids[size]
+ *     double  scores[size]
+ * </pre>
+ */
+public class QryResultCache {
+
+    private static final int MAGIC = 0x51524332;    // "QRC2"
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The results of one query.
+     */
+    private static class Entry {
+        int depth;
+        int[] docids;
+        double[] scores;
+
+        long sizeInBytes(String key) {
+            return 64 + 2L * key.length() + 12L * this.docids.length;
+        }
+    }
+
+    /**
+     * The budget, in bytes.
+     */
+    private long capacity;
+
+    /**
+     * The estimated size of the cached results, in bytes.
+     */
+    private long size = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * The cached results, in order from least to most recently used.
+     */
+    private LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * @param capacity The budget in bytes.
+     */
+    public QryResultCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get the canonical form of a query evaluated by a retrieval model.
+     *
+     * @param q     An optimized query tree.
+     * @param model A retrieval model.
+     * @return The key of the query's results.
+     */
+    public static String getKey(Qry q, RetrievalModel model) {
+        return model.getCacheKey() + " " + q.getCacheKey();
+    }
+
+    /**
+     * Get the cached results of a query.
+     *
+     * @param key   The key of the query's results.
+     * @param depth The number of top-ranked documents needed.
+     * @return The results, or null if they aren't cached or fewer
+     * documents were cached.
+     */
+    public synchronized ScoreList get(String key, int depth) {
+
+        Entry entry = this.entries.get(key);
+
+        //  Results for a smaller depth will do if the query didn't
+        //  match that many documents.
+
+        if ((entry == null) ||
+                ((entry.depth < depth) && (entry.docids.length == entry.depth))) {
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+
+        int n = Math.min(depth, entry.docids.length);
+        return new ScoreList(entry.docids, entry.scores, n);
+    }
+
+    /**
+     * Cache the results of a query, evicting the least recently used
+     * results if necessary.
+     *
+     * @param key   The key of the query's results.
+     * @param depth The number of top-ranked documents that were requested.
+     * @param r     The sorted results.
+     */
+    public synchronized void put(String key, int depth, ScoreList r) {
+
+        Entry entry = new Entry();
+        int n = Math.min(depth, r.size());
+
+        entry.depth = depth;
+        entry.docids = new int[n];
+        entry.scores = new double[n];
+
+        for (int i = 0; i < n; i++) {
+            entry.docids[i] = r.getDocid(i);
+            entry.scores[i] = r.getDocidScore(i);
+        }
+
+        this.put(key, entry);
+    }
+
+    /**
+     * Cache an entry, evicting the least recently used results if
+     * necessary.
+     *
+     * @param key   The key of the query's results.
+     * @param entry The results.
+     */
+    private void put(String key, Entry entry) {
+
+        long bytes = entry.sizeInBytes(key);
+
+        if (bytes > this.capacity) {
+            return;
+        }
+
+        Entry old = this.entries.put(key, entry);
+
+        if (old != null) {
+            this.size -= old.sizeInBytes(key);
+        }
+
+        this.size += bytes;
+
+        Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+
+        while ((this.size > this.capacity) && it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            this.size -= e.getValue().sizeInBytes(e.getKey());
+            it.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Get the version of the current index, which changes when the
+     * index does.
+     *
+     * @return The index version.
+     */
+    private static long getIndexVersion() {
+        return (Idx.INDEXREADER instanceof DirectoryReader) ?
+                ((DirectoryReader) Idx.INDEXREADER).getVersion() : 0;
+    }
+
+    /**
+     * Load results saved by an earlier run, if the file exists and was
+     * saved for the current index.  The file is only a cache, so if it
+     * can't be read, e.g., because it is truncated, a warning is
+     * printed and the cache starts empty.
+     *
+     * @param path The file.
+     */
+    public synchronized void load(String path) {
+
+        File file = new File(path);
+
+        if (!file.canRead()) {
+            return;
+        }
+
+        try {
+            this.load(file);
+        } catch (IOException ex) {
+            this.loadFailed(file, ex);
+        } catch (RuntimeException ex) {
+            this.loadFailed(file, ex);
+        }
+    }
+
+    /**
+     * Discard the results that were loaded from a file that can't be
+     * read.
+     */
+    private void loadFailed(File file, Exception ex) {
+        System.err.println("Warning:  Unable to load " + file.getPath() + ":  " + ex);
+        this.entries.clear();
+        this.size = 0;
+    }
+
+    /**
+     * Load the results in a file.  Lengths are checked against the
+     * size of the file, so that a corrupt file can't cause a huge
+     * allocation.
+     */
+    private void load(File file) throws IOException {
+
+        long fileLength = file.length();
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            if ((in.readInt() != MAGIC) ||
+                    (in.readLong() != getIndexVersion()) ||
+                    (in.readInt() != Idx.INDEXREADER.maxDoc())) {
+                return;
+            }
+
+            int n = in.readInt();
+
+            for (int i = 0; i < n; i++) {
+                int keyLength = in.readInt();
+
+                if ((keyLength < 0) || (keyLength > fileLength)) {
+                    throw new IOException("Corrupt result cache " + file.getPath());
+                }
+
+                byte[] keyBytes = new byte[keyLength];
+                in.readFully(keyBytes);
+
+                String key = new String(keyBytes, UTF8);
+                Entry entry = new Entry();
+
+                entry.depth = in.readInt();
+
+                int length = in.readInt();
+
+                if ((length < 0) || (length > fileLength / 12)) {
+                    throw new IOException("Corrupt result cache " + file.getPath());
+                }
+
+                entry.docids = new int[length];
+                entry.scores = new double[entry.docids.length];
+
+                for (int j = 0; j < entry.docids.length; j++) {
+                    entry.docids[j] = in.readInt();
+                }
+
+                for (int j = 0; j < entry.scores.length; j++) {
+                    entry.scores[j] = in.readDouble();
+                }
+
+                this.put(key, entry);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Save the cached results.  The file is written to a temporary
+     * file that then replaces it (see Idx.replaceFile), so a concurrent
+     * reader never sees a partial file.  Keys are written as UTF-8
+     * bytes, not with writeUTF, because the key of a long query can be
+     * longer than writeUTF allows.
+     *
+     * @param path The file.
+     * @throws IOException Error writing the file.
+     */
+    public synchronized void save(String path) throws IOException {
+
+        File file = new File(path);
+        File tmp = new File(path + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        boolean saved = false;
+
+        try {
+            try {
+                out.writeInt(MAGIC);
+                out.writeLong(getIndexVersion());
+                out.writeInt(Idx.INDEXREADER.maxDoc());
+                out.writeInt(this.entries.size());
+
+                for (Map.Entry<String, Entry> e : this.entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    byte[] key = e.getKey().getBytes(UTF8);
+
+                    out.writeInt(key.length);
+                    out.write(key);
+                    out.writeInt(entry.depth);
+                    out.writeInt(entry.docids.length);
+
+                    for (int docid : entry.docids) {
+                        out.writeInt(docid);
+                    }
+
+                    for (double score : entry.scores) {
+                        out.writeDouble(score);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+
+            Idx.replaceFile(tmp, file);
+            saved = true;
+        } finally {
+            if (!saved) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Get a summary of the cache's activity, for example, to report at
+     * the end of a run.
+     *
+     * @return The summary.
+     */
+    public synchronized String toString() {
+        return String.format("hits %d, misses %d, evictions %d, queries %d, bytes %d of %d",
+                this.hits, this.misses, this.evictions, this.entries.size(),
+                this.size, this.capacity);
+    }
+}
@@ -0,0 +1,409 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+
+/**
+ * A QryScorer calculates the score of the document that a QrySop
+ * operator matched, like QrySop.getScore.  The difference is that a
+ * scorer is compiled once per query for one retrieval model, so the
+ * retrieval model isn't tested, and arguments aren't fetched from an
+ * ArrayList and cast, for every document and every operator.
+ * <p>
+ * Each operator is compiled to a small final class that holds its
+ * arguments in arrays.  #AND and #OR operators whose arguments are all
+ * SCORE operators (the common case) are compiled to one scorer that
+ * reads the tfs of the terms directly, so the hot loop has no virtual
+ * calls to other scorers.  Operators and retrieval models that can't
+ * be compiled are scored by QrySop.getScore, so every query can be
+ * compiled.  Compiled scores are identical to QrySop.getScore scores.
+ * </p><p>
+ * The query must be initialized before it is compiled.  A scorer reads
+ * the docIterators of the query, so it is only valid until the query
+ * advances past the match.
+ * </p>
+ */
+public abstract class QryScorer {
+
+    /**
+     * Get a score for the document that docIteratorHasMatch matched.
+     *
+     * @return The document score.
+     * @throws IOException Error accessing the Lucene index
+     */
+    public abstract double score() throws IOException;
+
+    /**
+     * Compile a query for a retrieval model.
+     *
+     * @param q An initialized query.
+     * @param r The retrieval model that determines how scores are calculated.
+     * @return The scorer.
+     */
+    public static QryScorer compile(QrySop q, RetrievalModel r) {
+
+        if (r instanceof RetrievalModelUnrankedBoolean) {
+            if ((q instanceof QrySopAnd) || (q instanceof QrySopOr) ||
+                    (q instanceof QrySopScore)) {
+                return new UnrankedBoolean(q);
+            }
+        } else if (r instanceof RetrievalModelRankedBoolean) {
+            return compileRankedBoolean(q, r);
+        } else if (r instanceof RetrievalModelBm25) {
+            return compileBm25(q, r);
+        } else if (r instanceof RetrievalModelIndri) {
+            return compileIndri(q, r);
+        }
+
+        return new TreeWalk(q, r);
+    }
+
+    /**
+     * Compile a query for the RankedBoolean retrieval model.
+     *
+     * @param q An initialized query.
+     * @param r The retrieval model that determines how scores are calculated.
+     * @return The scorer.
+     */
+    private static QryScorer compileRankedBoolean(QrySop q, RetrievalModel r) {
+
+        if (q instanceof QrySopScore) {
+            return new RankedBooleanTf(q.getArg(0));
+        }
+
+        if (!(q instanceof QrySopAnd) && !(q instanceof QrySopOr)) {
+            return new TreeWalk(q, r);
+        }
+
+        int n = q.args.size();
+        Qry[] args = new Qry[n];
+        QryIop[] terms = new QryIop[n];
+        QryScorer[] scorers = new QryScorer[n];
+        boolean allTerms = true;
+
+        for (int i = 0; i < n; i++) {
+            args[i] = q.args.get(i);
+
+            if (args[i] instanceof QrySopScore) {
+                terms[i] = args[i].getArg(0);
+            } else {
+                allTerms = false;
+            }
+
+            scorers[i] = compileRankedBoolean((QrySop) args[i], r);
+        }
+
+        if (q instanceof QrySopAnd) {
+            return allTerms ? new RankedBooleanAndTf(terms) : new RankedBooleanAnd(scorers);
+        } else {
+            return allTerms ? new RankedBooleanOrTf(q, args, terms) :
+                    new RankedBooleanOr(q, args, scorers);
+        }
+    }
+
+    /**
+     * Compile a query for the BM25 retrieval model.
+     *
+     * @param q An initialized query.
+     * @param r The retrieval model that determines how scores are calculated.
+     * @return The scorer.
+     */
+    private static QryScorer compileBm25(QrySop q, RetrievalModel r) {
+
+        if (q instanceof QrySopScore) {
+            return new Bm25Score((QrySopScore) q);
+        }
+
+        if (!(q instanceof QrySopSum)) {
+            return new TreeWalk(q, r);
+        }
+
+        int n = q.args.size();
+        Qry[] args = new Qry[n];
+        QryScorer[] scorers = new QryScorer[n];
+
+        for (int i = 0; i < n; i++) {
+            args[i] = q.args.get(i);
+            scorers[i] = compileBm25((QrySop) args[i], r);
+        }
+
+        return new Bm25Sum(q, args, scorers);
+    }
+
+    /**
+     * Compile a query for the Indri retrieval model.
+     *
+     * @param q An initialized query.
+     * @param r The retrieval model that determines how scores are calculated.
+     * @return The scorer.
+     */
+    private static QryScorer compileIndri(QrySop q, RetrievalModel r) {
+
+        if (q instanceof QrySopScore) {
+            return new IndriScore((QrySopScore) q);
+        }
+
+        if (!(q instanceof QrySopAnd)) {
+            return new TreeWalk(q, r);
+        }
+
+        int n = q.args.size();
+        QrySop[] args = new QrySop[n];
+        QryScorer[] scorers = new QryScorer[n];
+
+        for (int i = 0; i < n; i++) {
+            args[i] = (QrySop) q.args.get(i);
+            scorers[i] = compileIndri(args[i], r);
+        }
+
+        return new IndriAnd(q, args, scorers, r);
+    }
+
+    /**
+     * Scores with QrySop.getScore, for operators and retrieval models
+     * that can't be compiled.
+     */
+    private static final class TreeWalk extends QryScorer {
+
+        private final QrySop q;
+        private final RetrievalModel r;
+
+        TreeWalk(QrySop q, RetrievalModel r) {
+            this.q = q;
+            this.r = r;
+        }
+
+        public double score() throws IOException {
+            return this.q.getScore(this.r);
+        }
+    }
+
+    /**
+     * UnrankedBoolean:  1 if the operator matched the document.
+     */
+    private static final class UnrankedBoolean extends QryScorer {
+
+        private final Qry q;
+
+        UnrankedBoolean(Qry q) {
+            this.q = q;
+        }
+
+        public double score() {
+            return this.q.docIteratorHasMatchCache() ? 1.0 : 0.0;
+        }
+    }
+
+    /**
+     * RankedBoolean SCORE:  the tf of the term.
+     */
+    private static final class RankedBooleanTf extends QryScorer {
+
+        private final QryIop term;
+
+        RankedBooleanTf(QryIop term) {
+            this.term = term;
+        }
+
+        public double score() {
+            return this.term.docIteratorGetMatchTf();
+        }
+    }
+
+    /**
+     * RankedBoolean #AND of SCORE operators:  the smallest tf.
+     */
+    private static final class RankedBooleanAndTf extends QryScorer {
+
+        private final QryIop[] terms;
+
+        RankedBooleanAndTf(QryIop[] terms) {
+            this.terms = terms;
+        }
+
+        public double score() {
+            double min = Double.MAX_VALUE;
+            for (int i = 0; i < this.terms.length; i++) {
+                double tf = this.terms[i].docIteratorGetMatchTf();
+                min = min > tf ? tf : min;
+            }
+            return min;
+        }
+    }
+
+    /**
+     * RankedBoolean #AND:  the smallest argument score.
+     */
+    private static final class RankedBooleanAnd extends QryScorer {
+
+        private final QryScorer[] scorers;
+
+        RankedBooleanAnd(QryScorer[] scorers) {
+            this.scorers = scorers;
+        }
+
+        public double score() throws IOException {
+            double min = Double.MAX_VALUE;
+            for (int i = 0; i < this.scorers.length; i++) {
+                double tf = this.scorers[i].score();
+                min = min > tf ? tf : min;
+            }
+            return min;
+        }
+    }
+
+    /**
+     * RankedBoolean #OR of SCORE operators:  the largest tf of the
+     * arguments that match the document.
+     */
+    private static final class RankedBooleanOrTf extends QryScorer {
+
+        private final Qry q;
+        private final Qry[] args;
+        private final QryIop[] terms;
+
+        RankedBooleanOrTf(Qry q, Qry[] args, QryIop[] terms) {
+            this.q = q;
+            this.args = args;
+            this.terms = terms;
+        }
+
+        public double score() {
+            double max = Double.MIN_VALUE;
+            int docid = this.q.docIteratorGetMatch();
+            for (int i = 0; i < this.args.length; i++) {
+                if (this.args[i].docIteratorHasMatchCache() &&
+                        (this.args[i].docIteratorGetMatch() == docid)) {
+                    double tf = this.terms[i].docIteratorGetMatchTf();
+                    max = max < tf ? tf : max;
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * RankedBoolean #OR:  the largest score of the arguments that
+     * match the document.
+     */
+    private static final class RankedBooleanOr extends QryScorer {
+
+        private final Qry q;
+        private final Qry[] args;
+        private final QryScorer[] scorers;
+
+        RankedBooleanOr(Qry q, Qry[] args, QryScorer[] scorers) {
+            this.q = q;
+            this.args = args;
+            this.scorers = scorers;
+        }
+
+        public double score() throws IOException {
+            double max = Double.MIN_VALUE;
+            int docid = this.q.docIteratorGetMatch();
+            for (int i = 0; i < this.args.length; i++) {
+                if (this.args[i].docIteratorHasMatchCache() &&
+                        (this.args[i].docIteratorGetMatch() == docid)) {
+                    double tf = this.scorers[i].score();
+                    max = max < tf ? tf : max;
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * BM25 SCORE:  the term weight times the tf weight.
+     */
+    private static final class Bm25Score extends QryScorer {
+
+        private final QrySopScore q;
+
+        Bm25Score(QrySopScore q) {
+            this.q = q;
+        }
+
+        public double score() {
+            return this.q.getScoreBm25();
+        }
+    }
+
+    /**
+     * BM25 #SUM:  the sum of the scores of the arguments that match the
+     * document.
+     */
+    private static final class Bm25Sum extends QryScorer {
+
+        private final Qry q;
+        private final Qry[] args;
+        private final QryScorer[] scorers;
+
+        Bm25Sum(Qry q, Qry[] args, QryScorer[] scorers) {
+            this.q = q;
+            this.args = args;
+            this.scorers = scorers;
+        }
+
+        public double score() throws IOException {
+            double sum = 0.0;
+            int docid = this.q.docIteratorGetMatch();
+            for (int i = 0; i < this.args.length; i++) {
+                if (this.args[i].docIteratorHasMatchCache() &&
+                        (this.args[i].docIteratorGetMatch() == docid)) {
+                    sum += this.scorers[i].score();
+                }
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Indri SCORE:  the smoothed probability of the term.
+     */
+    private static final class IndriScore extends QryScorer {
+
+        private final QrySopScore q;
+
+        IndriScore(QrySopScore q) {
+            this.q = q;
+        }
+
+        public double score() {
+            return this.q.getScoreIndri();
+        }
+    }
+
+    /**
+     * Indri #AND:  the geometric mean of the argument scores.  Arguments
+     * that don't match the document contribute their default scores.
+     */
+    private static final class IndriAnd extends QryScorer {
+
+        private final Qry q;
+        private final QrySop[] args;
+        private final QryScorer[] scorers;
+        private final RetrievalModel r;
+        private final double power;
+
+        IndriAnd(Qry q, QrySop[] args, QryScorer[] scorers, RetrievalModel r) {
+            this.q = q;
+            this.args = args;
+            this.scorers = scorers;
+            this.r = r;
+            this.power = 1.0 / args.length;
+        }
+
+        public double score() throws IOException {
+            double score = 1.0;
+            int docid = this.q.docIteratorGetMatch();
+            for (int i = 0; i < this.args.length; i++) {
+                double p = (this.args[i].docIteratorHasMatchCache() &&
+                        (this.args[i].docIteratorGetMatch() == docid)) ?
+                        this.scorers[i].score() : this.args[i].getDefaultScore(this.r, docid);
+                score *= Math.pow(p, this.power);
+            }
+            return score;
+        }
+    }
+}
@@ -24,6 +24,45 @@ public abstract class QrySop extends Qry {
     public abstract double getScore(RetrievalModel r)
             throws IOException;
 
+    /**
+     *  Get the score of a document that the query operator doesn't
+     *  match, for retrieval models (e.g., Indri) that give such
+     *  documents a smoothed score.  The default implementation is for
+     *  operators that don't support this.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @param docid The internal id of a document.
+     *  @return The document's default score.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public double getDefaultScore(RetrievalModel r, int docid)
+            throws IOException {
+        throw new IllegalArgumentException
+                (r.getClass().getName() + " doesn't support default scores for the " +
+                        this.getDisplayName() + " operator.");
+    }
+
+    /**
+     *  Get an upper bound on the score of any document.  Dynamic
+     *  pruning uses the bound to decide which documents can't matter.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @return An upper bound on the document score.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public abstract double getMaxScore(RetrievalModel r)
+            throws IOException;
+
+    /**
+     *  Tell the query operator that documents that score below
+     *  minScore will be discarded, so the docIterator may skip them.
+     *  Operators that can't use this information ignore it.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @param minScore The lowest score that is still useful.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public void setMinCompetitiveScore(RetrievalModel r, double minScore)
+            throws IOException {
+    }
+
     /**
      *  Initialize the query operator (and its arguments), including any
      *  internal iterators.  If the query operator is of type QryIop, it
@@ -7,12 +7,47 @@ import java.io.IOException;
  */
 public class QrySopAnd extends QrySop {
     /**
-     *  Indicates whether the query has a match.
+     *  Indicates whether the query has a match.  The Indri retrieval
+     *  model gives arguments that don't match a document a default
+     *  score, so a document matches if it matches any argument.
      *  @param r The retrieval model that determines what is a match
      *  @return True if the query matches, otherwise false.
      */
     public boolean docIteratorHasMatch(RetrievalModel r) {
-        return this.docIteratorHasMatchAll(r);
+
+        if (r instanceof RetrievalModelIndri) {
+            return this.docIteratorHasMatchMin(r);
+        } else {
+            return this.docIteratorHasMatchAll(r);
+        }
+    }
+
+    /**
+     *  Initialize the query operator and its arguments, then plan the
+     *  intersection so that it is driven by the most selective argument.
+     *  @param r A retrieval model that guides initialization
+     *  @throws IOException Error accessing the Lucene index.
+     */
+    public void initialize(RetrievalModel r) throws IOException {
+        super.initialize(r);
+        this.planMatchAll();
+    }
+
+    /**
+     *  Estimate the number of documents that the query operator
+     *  matches.  A document must match every argument, so the smallest
+     *  argument estimate is a bound.
+     *  @return An estimate of the operator's df.
+     */
+    public long getDfEstimate() {
+
+        long df = Long.MAX_VALUE;
+
+        for (int i = 0; i < this.args.size(); i++) {
+            df = Math.min(df, this.args.get(i).getDfEstimate());
+        }
+
+        return df;
     }
 
     /**
@@ -27,6 +62,8 @@ public class QrySopAnd extends QrySop {
             return this.getScoreUnrankedBoolean(r);
         } else if (r instanceof RetrievalModelRankedBoolean) {
             return this.getScoreRankedBoolean(r);
+        } else if (r instanceof RetrievalModelIndri) {
+            return this.getScoreIndri(r);
         } else {
             throw new IllegalArgumentException
                     (r.getClass().getName() + " doesn't support the AND operator.");
@@ -55,4 +92,72 @@ public class QrySopAnd extends QrySop {
         }
         return min;
     }
+
+    /**
+     *  getScore for the Indri retrieval model:  the geometric mean of
+     *  the argument scores.  Arguments that don't match the document
+     *  contribute their default scores.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @return The document score.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    private double getScoreIndri(RetrievalModel r) throws IOException {
+        double score = 1.0;
+        double power = 1.0 / this.args.size();
+        int docid = this.docIteratorGetMatch();
+        for (int i = 0; i < this.args.size(); i++) {
+            QrySop q_i = (QrySop) this.args.get(i);
+            double p = (q_i.docIteratorHasMatchCache() && (q_i.docIteratorGetMatch() == docid)) ?
+                    q_i.getScore(r) : q_i.getDefaultScore(r, docid);
+            score *= Math.pow(p, power);
+        }
+        return score;
+    }
+
+    /**
+     *  Get the score of a document that the query operator doesn't
+     *  match:  the geometric mean of the default scores of the
+     *  arguments.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @param docid The internal id of a document.
+     *  @return The document's default score.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public double getDefaultScore(RetrievalModel r, int docid) throws IOException {
+
+        if (!(r instanceof RetrievalModelIndri)) {
+            return super.getDefaultScore(r, docid);
+        }
+
+        double score = 1.0;
+        double power = 1.0 / this.args.size();
+        for (int i = 0; i < this.args.size(); i++) {
+            score *= Math.pow(((QrySop) this.args.get(i)).getDefaultScore(r, docid), power);
+        }
+        return score;
+    }
+
+    /**
+     *  Get an upper bound on the score of any document.  A document's
+     *  score is the minimum of its argument scores, so the smallest
+     *  argument bound is a bound.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @return An upper bound on the document score.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public double getMaxScore(RetrievalModel r) throws IOException {
+
+        if (r instanceof RetrievalModelUnrankedBoolean) {
+            return 1.0;
+        } else if (r instanceof RetrievalModelRankedBoolean) {
+            double min = Double.MAX_VALUE;
+            for (int i = 0; i < this.args.size(); i++) {
+                min = Math.min(min, ((QrySop) this.args.get(i)).getMaxScore(r));
+            }
+            return min;
+        } else {
+            throw new IllegalArgumentException
+                    (r.getClass().getName() + " doesn't support the AND operator.");
+        }
+    }
 }
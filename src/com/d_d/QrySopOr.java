@@ -9,13 +9,63 @@ import java.io.IOException;
  */
 public class QrySopOr extends QrySop {
 
+    /**
+     *  Upper bounds on the scores of the arguments.  They are computed
+     *  the first time that dynamic pruning is used.
+     */
+    private double[] argMaxScores = null;
+
+    /**
+     *  The arguments whose bounds are at least minCompetitiveScore.
+     */
+    private boolean[] argEssential = null;
+
+    /**
+     *  Documents that score below this are discarded by the caller.
+     */
+    private double minCompetitiveScore = Double.NEGATIVE_INFINITY;
+
     /**
      *  Indicates whether the query has a match.
      *  @param r The retrieval model that determines what is a match
      *  @return True if the query matches, otherwise false.
      */
     public boolean docIteratorHasMatch(RetrievalModel r) {
-        return this.docIteratorHasMatchMin(r);
+
+        if (this.minCompetitiveScore == Double.NEGATIVE_INFINITY) {
+            return this.docIteratorHasMatchMin(r);
+        } else {
+            return this.docIteratorHasMatchEssential(r, this.argEssential);
+        }
+    }
+
+    /**
+     *  Tell the query operator that documents that score below
+     *  minScore will be discarded, so the docIterator may skip them.
+     *  A document's score is the largest score of the arguments that
+     *  match it, so an argument whose bound is below minScore isn't
+     *  essential (see docIteratorHasMatchEssential).
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @param minScore The lowest score that is still useful.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public void setMinCompetitiveScore(RetrievalModel r, double minScore)
+            throws IOException {
+
+        if (this.argMaxScores == null) {
+            this.argMaxScores = new double[this.args.size()];
+            this.argEssential = new boolean[this.args.size()];
+
+            for (int i = 0; i < this.args.size(); i++) {
+                this.argMaxScores[i] = ((QrySop) this.args.get(i)).getMaxScore(r);
+            }
+        }
+
+        this.minCompetitiveScore = minScore;
+
+        for (int i = 0; i < this.args.size(); i++) {
+            this.argEssential[i] = (this.argMaxScores[i] >= minScore);
+        }
     }
 
     /**
@@ -50,6 +100,30 @@ public class QrySopOr extends QrySop {
         }
     }
 
+    /**
+     *  Get an upper bound on the score of any document.  A document's
+     *  score is the maximum of its argument scores, so the largest
+     *  argument bound is a bound.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @return An upper bound on the document score.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public double getMaxScore(RetrievalModel r) throws IOException {
+
+        if (r instanceof RetrievalModelUnrankedBoolean) {
+            return 1.0;
+        } else if (r instanceof RetrievalModelRankedBoolean) {
+            double max = Double.MIN_VALUE;
+            for (int i = 0; i < this.args.size(); i++) {
+                max = Math.max(max, ((QrySop) this.args.get(i)).getMaxScore(r));
+            }
+            return max;
+        } else {
+            throw new IllegalArgumentException
+                    (r.getClass().getName() + " doesn't support the OR operator.");
+        }
+    }
+
     private double getScoreRankedBoolean(RetrievalModel r) throws IOException {
         double max = Double.MIN_VALUE;
         int docid = this.docIteratorGetMatch();
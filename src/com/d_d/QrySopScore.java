@@ -14,6 +14,22 @@ public class QrySopScore extends QrySop {
      *  Some retrieval models have these, some don't.
      */
 
+    /**
+     *  BM25:  The idf and query weight of the term, and the length
+     *  normalization factors of its field, indexed by docid.
+     */
+    private double bm25Weight;
+    private double[] bm25LengthNorms;
+
+    /**
+     *  Indri:  The score of a document is
+     *  (indriTfWeight * tf + indriPrior) * indriLengthNorms [docid] + indriBackground.
+     */
+    private double indriTfWeight;
+    private double indriPrior;
+    private double indriBackground;
+    private double[] indriLengthNorms;
+
     /**
      *  Indicates whether the query has a match.
      *  @param r The retrieval model that determines what is a match
@@ -35,6 +51,10 @@ public class QrySopScore extends QrySop {
             return this.getScoreUnrankedBoolean(r);
         } else if (r instanceof RetrievalModelRankedBoolean) {
             return this.getScoreRankedBoolean(r);
+        } else if (r instanceof RetrievalModelBm25) {
+            return this.getScoreBm25();
+        } else if (r instanceof RetrievalModelIndri) {
+            return this.getScoreIndri();
         } else {
             throw new IllegalArgumentException
                     (r.getClass().getName() + " doesn't support the SCORE operator.");
@@ -57,7 +77,84 @@ public class QrySopScore extends QrySop {
 
     public double getScoreRankedBoolean(RetrievalModel r) throws IOException {
         QryIop qry = this.getArg(0);
-        return qry.docIteratorGetMatchPosting().tf;
+        return qry.docIteratorGetMatchTf();
+    }
+
+    /**
+     *  getScore for the BM25 retrieval model.  Everything but the tf
+     *  was computed when the operator was initialized.
+     *  @return The document score.
+     */
+    public double getScoreBm25() {
+        QryIop qry = this.getArg(0);
+        double tf = qry.docIteratorGetMatchTf();
+        return this.bm25Weight * tf / (tf + this.bm25LengthNorms[qry.docIteratorGetMatch()]);
+    }
+
+    /**
+     *  getScore for the Indri retrieval model.  Everything but the tf
+     *  was computed when the operator was initialized.
+     *  @return The document score.
+     */
+    public double getScoreIndri() {
+        QryIop qry = this.getArg(0);
+        int docid = qry.docIteratorGetMatch();
+        double tf = qry.docIteratorGetMatchTf();
+        return (this.indriTfWeight * tf + this.indriPrior) * this.indriLengthNorms[docid] +
+                this.indriBackground;
+    }
+
+    /**
+     *  Get the score of a document that doesn't contain the term.  It
+     *  depends only on the length of the document, so the inverted list
+     *  isn't used.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @param docid The internal id of a document.
+     *  @return The document's default score.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public double getDefaultScore(RetrievalModel r, int docid) throws IOException {
+
+        if (r instanceof RetrievalModelIndri) {
+            return this.getDefaultScoreIndri(docid);
+        } else {
+            return super.getDefaultScore(r, docid);
+        }
+    }
+
+    /**
+     *  getDefaultScore for the Indri retrieval model.
+     *  @param docid The internal id of a document.
+     *  @return The document's default score.
+     */
+    public double getDefaultScoreIndri(int docid) {
+        return this.indriPrior * this.indriLengthNorms[docid] + this.indriBackground;
+    }
+
+    /**
+     *  Get an upper bound on the score of any document.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @return An upper bound on the document score.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public double getMaxScore(RetrievalModel r) throws IOException {
+
+        if (r instanceof RetrievalModelUnrankedBoolean) {
+            return 1.0;
+        } else if (r instanceof RetrievalModelRankedBoolean) {
+            return this.getArg(0).getMaxTf();
+        } else if (r instanceof RetrievalModelBm25) {
+
+            //  The tf weight grows with tf and shrinks with the length
+            //  normalization factor.
+
+            double tf = this.getArg(0).getMaxTf();
+            return this.bm25Weight * tf /
+                    (tf + ((RetrievalModelBm25) r).getMinLengthNorm());
+        } else {
+            throw new IllegalArgumentException
+                    (r.getClass().getName() + " doesn't support the SCORE operator.");
+        }
     }
 
     /**
@@ -71,7 +168,35 @@ public class QrySopScore extends QrySop {
     public void initialize(RetrievalModel r) throws IOException {
 
         Qry q = this.args.get(0);
-        q.initialize(r);
+
+        //  A SCORE operator only needs the docids and tfs of a term, so
+        //  the term's inverted list can be read from the index on demand.
+        //  If inverted lists are cached, the term's list is read (or
+        //  found in the cache) instead, so that other queries can use it.
+
+        if ((q instanceof QryIopTerm) && r.getStreamingTerms() &&
+                !Idx.getInvListCache().isEnabled()) {
+            ((QryIopTerm) q).initializeStreaming();
+        } else {
+            q.initialize(r);
+        }
+
+        if (r instanceof RetrievalModelBm25) {
+            RetrievalModelBm25 bm25 = (RetrievalModelBm25) r;
+            QryIop qry = this.getArg(0);
+
+            this.bm25Weight = bm25.getIdf(qry.getDf()) * bm25.getUserWeight(1.0);
+            this.bm25LengthNorms = bm25.getLengthNorms(qry.getField());
+        } else if (r instanceof RetrievalModelIndri) {
+            RetrievalModelIndri indri = (RetrievalModelIndri) r;
+            QryIop qry = this.getArg(0);
+            double mle = indri.getMle(qry.getCtf(), qry.getField());
+
+            this.indriTfWeight = 1.0 - indri.getLambda();
+            this.indriPrior = this.indriTfWeight * indri.getMu() * mle;
+            this.indriBackground = indri.getLambda() * mle;
+            this.indriLengthNorms = indri.getLengthNorms(qry.getField());
+        }
     }
 
 }
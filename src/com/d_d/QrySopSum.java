@@ -0,0 +1,158 @@
+package com.d_d; /**
+ * Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ *  The SUM operator for the BM25 retrieval model.  A document matches
+ *  if it matches any argument, and its score is the sum of the scores
+ *  of the arguments that it matches.
+ */
+public class QrySopSum extends QrySop {
+
+    /**
+     *  Upper bounds on the scores of the arguments, and the arguments
+     *  in order of ascending bound.  They are computed the first time
+     *  that dynamic pruning is used.
+     */
+    private double[] argMaxScores = null;
+    private int[] argMaxScoreOrder = null;
+
+    /**
+     *  The arguments that a competitive document must match.
+     */
+    private boolean[] argEssential = null;
+
+    /**
+     *  Documents that score below this are discarded by the caller.
+     */
+    private double minCompetitiveScore = Double.NEGATIVE_INFINITY;
+
+    /**
+     *  Indicates whether the query has a match.
+     *  @param r The retrieval model that determines what is a match
+     *  @return True if the query matches, otherwise false.
+     */
+    public boolean docIteratorHasMatch(RetrievalModel r) {
+
+        if (this.minCompetitiveScore == Double.NEGATIVE_INFINITY) {
+            return this.docIteratorHasMatchMin(r);
+        } else {
+            return this.docIteratorHasMatchEssential(r, this.argEssential);
+        }
+    }
+
+    /**
+     *  Tell the query operator that documents that score below
+     *  minScore will be discarded, so the docIterator may skip them.
+     *  A document's score is the sum of the scores of the arguments
+     *  that match it, so the arguments with the smallest bounds aren't
+     *  essential while the sum of their bounds is below minScore (see
+     *  docIteratorHasMatchEssential).
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @param minScore The lowest score that is still useful.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public void setMinCompetitiveScore(RetrievalModel r, double minScore)
+            throws IOException {
+
+        int n = this.args.size();
+
+        if (this.argMaxScores == null) {
+            final double[] maxScores = new double[n];
+            Integer[] order = new Integer[n];
+
+            for (int i = 0; i < n; i++) {
+                maxScores[i] = Math.max(0.0, ((QrySop) this.args.get(i)).getMaxScore(r));
+                order[i] = i;
+            }
+
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer i, Integer j) {
+                    return Double.compare(maxScores[i], maxScores[j]);
+                }
+            });
+
+            this.argMaxScores = maxScores;
+            this.argMaxScoreOrder = new int[n];
+            this.argEssential = new boolean[n];
+
+            for (int i = 0; i < n; i++) {
+                this.argMaxScoreOrder[i] = order[i];
+            }
+        }
+
+        if (minScore == this.minCompetitiveScore) {
+            return;
+        }
+
+        this.minCompetitiveScore = minScore;
+
+        double sum = 0.0;
+
+        for (int i = 0; i < n; i++) {
+            int arg = this.argMaxScoreOrder[i];
+            sum += this.argMaxScores[arg];
+            this.argEssential[arg] = (sum >= minScore);
+        }
+    }
+
+    /**
+     *  Get a score for the document that docIteratorHasMatch matched.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @return The document score.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public double getScore(RetrievalModel r) throws IOException {
+
+        if (r instanceof RetrievalModelBm25) {
+            return this.getScoreBm25(r);
+        } else {
+            throw new IllegalArgumentException
+                    (r.getClass().getName() + " doesn't support the SUM operator.");
+        }
+    }
+
+    /**
+     *  getScore for the BM25 retrieval model.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @return The document score.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    private double getScoreBm25(RetrievalModel r) throws IOException {
+        double sum = 0.0;
+        int docid = this.docIteratorGetMatch();
+        for (int i = 0; i < this.args.size(); i++) {
+            Qry q_i = this.args.get(i);
+            if (q_i.docIteratorHasMatchCache() && (q_i.docIteratorGetMatch() == docid)) {
+                sum += ((QrySop) q_i).getScore(r);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     *  Get an upper bound on the score of any document.  A document's
+     *  score is the sum of its argument scores, so the sum of the
+     *  argument bounds is a bound.
+     *  @param r The retrieval model that determines how scores are calculated.
+     *  @return An upper bound on the document score.
+     *  @throws IOException Error accessing the Lucene index
+     */
+    public double getMaxScore(RetrievalModel r) throws IOException {
+
+        if (r instanceof RetrievalModelBm25) {
+            double sum = 0.0;
+            for (int i = 0; i < this.args.size(); i++) {
+                sum += ((QrySop) this.args.get(i)).getMaxScore(r);
+            }
+            return sum;
+        } else {
+            throw new IllegalArgumentException
+                    (r.getClass().getName() + " doesn't support the SUM operator.");
+        }
+    }
+}
@@ -2,6 +2,11 @@ package com.d_d; /**
  * Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
  */
 
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.util.HashMap;
+
 /**
  *  The root class in the retrieval model hierarchy.  This hierarchy
  *  is used to create objects that provide fast access to retrieval
@@ -10,10 +15,131 @@ package com.d_d; /**
  */
 public abstract class RetrievalModel {
 
+    /**
+     *  If true, terms that are arguments of SCORE operators iterate
+     *  over the index's inverted lists directly instead of copying
+     *  them into InvLists when the query is initialized.
+     */
+    private boolean streamingTerms = true;
+
+    /**
+     *  If true, query operators may skip documents that cannot score
+     *  high enough to enter a bounded result list (see
+     *  QrySop.setMinCompetitiveScore).
+     */
+    private boolean dynamicPruning = false;
+
+    /**
+     *  The length normalization factors of each field of the current
+     *  index, indexed by internal docid (see getLengthNorms).
+     */
+    private HashMap<String, double[]> lengthNorms = new HashMap<String, double[]>();
+
+    /**
+     *  The index that lengthNorms were computed for.
+     */
+    private IndexReader lengthNormsReader = null;
+
     /**
      *  The name of the default query operator for the retrieval model.
      *  @return The name of the default query operator.
      */
     public abstract String defaultQrySopName();
 
+    /**
+     *  Compute the length normalization factor of a document.  Retrieval
+     *  models that use getLengthNorms must override it.
+     *  @param length The length of the field in the document.
+     *  @param avgLength The average length of the field.
+     *  @return The length normalization factor.
+     */
+    protected double computeLengthNorm(int length, double avgLength) {
+        throw new IllegalArgumentException
+                (this.getClass().getName() + " doesn't use length normalization.");
+    }
+
+    /**
+     *  Get a canonical form of the retrieval model, which identifies
+     *  the results that it produces in the QryResultCache.  Retrieval
+     *  models that have parameters that change scores must add them.
+     *  Parameters that only change how fast a query is evaluated (e.g.,
+     *  dynamic pruning) are not part of it.
+     *  @return The canonical form of the retrieval model.
+     */
+    public String getCacheKey() {
+        return this.getClass().getSimpleName();
+    }
+
+    /**
+     *  Whether query operators may skip documents that cannot enter a
+     *  bounded result list.
+     *  @return True if dynamic pruning is enabled.
+     */
+    public boolean getDynamicPruning() {
+        return this.dynamicPruning;
+    }
+
+    /**
+     *  Get the length normalization factors of a field (see
+     *  computeLengthNorm) for every document, indexed by internal
+     *  docid.  They are computed the first time that the field is used,
+     *  and again if the index changes.  The array is shared, so it must
+     *  not be changed.
+     *  @param fieldName The field name.
+     *  @return The length normalization factors of the field.
+     *  @throws IOException Error accessing the Lucene index.
+     */
+    public synchronized double[] getLengthNorms(String fieldName) throws IOException {
+
+        if (this.lengthNormsReader != Idx.INDEXREADER) {
+            this.lengthNorms.clear();
+            this.lengthNormsReader = Idx.INDEXREADER;
+        }
+
+        double[] norms = this.lengthNorms.get(fieldName);
+
+        if (norms == null) {
+            int[] lengths = Idx.getFieldLengths(fieldName);
+            double avgLength = (double) Idx.getSumOfFieldLengths(fieldName) /
+                    Idx.getDocCount(fieldName);
+
+            norms = new double[lengths.length];
+
+            for (int docid = 0; docid < lengths.length; docid++) {
+                norms[docid] = this.computeLengthNorm(lengths[docid], avgLength);
+            }
+
+            this.lengthNorms.put(fieldName, norms);
+        }
+
+        return norms;
+    }
+
+    /**
+     *  Set whether query operators may skip documents that cannot enter
+     *  a bounded result list.
+     *  @param dynamicPruning True if dynamic pruning is enabled.
+     */
+    public void setDynamicPruning(boolean dynamicPruning) {
+        this.dynamicPruning = dynamicPruning;
+    }
+
+    /**
+     *  Whether terms that are arguments of SCORE operators should be
+     *  streamed from the index rather than materialized.
+     *  @return True if such terms should be streamed.
+     */
+    public boolean getStreamingTerms() {
+        return this.streamingTerms;
+    }
+
+    /**
+     *  Set whether terms that are arguments of SCORE operators should
+     *  be streamed from the index rather than materialized.
+     *  @param streamingTerms True if such terms should be streamed.
+     */
+    public void setStreamingTerms(boolean streamingTerms) {
+        this.streamingTerms = streamingTerms;
+    }
+
 }
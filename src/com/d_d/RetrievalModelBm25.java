@@ -0,0 +1,101 @@
+package com.d_d; /**
+ * Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+
+/**
+ *  An object that stores parameters for the BM25 retrieval model and
+ *  indicates to the query operators how the query should be evaluated.
+ *  <p>
+ *  The score of a document d for a term t is
+ *  </p>
+ *  <pre>
+ *    idf (t) * tf / (tf + k1 * ((1 - b) + b * doclen / avg_doclen)) * (k3 + 1) * qtf / (k3 + qtf)
+ *  </pre>
+ *  <p>
+ *  where idf (t) = max (0, log ((N - df + 0.5) / (df + 0.5))).  The
+ *  document-dependent part of the denominator is the same for every
+ *  term of a field, so it is computed once for every document and
+ *  field (see getLengthNorms) and shared by queries.  SCORE operators
+ *  compute the rest of the term weight when they are initialized.
+ *  </p>
+ */
+public class RetrievalModelBm25 extends RetrievalModel {
+
+    private final double k1;
+    private final double b;
+    private final double k3;
+
+    /**
+     *  @param k1 Controls how quickly the tf weight saturates (k1 &gt;= 0).
+     *  @param b Controls length normalization (0 &lt;= b &lt;= 1).
+     *  @param k3 Controls the query term frequency weight (k3 &gt;= 0).
+     */
+    public RetrievalModelBm25(double k1, double b, double k3) {
+
+        if ((k1 < 0.0) || (b < 0.0) || (b > 1.0) || (k3 < 0.0)) {
+            throw new IllegalArgumentException
+                    ("BM25 requires k_1 >= 0, 0 <= b <= 1, and k_3 >= 0.");
+        }
+
+        this.k1 = k1;
+        this.b = b;
+        this.k3 = k3;
+    }
+
+    /**
+     *  Compute the length normalization factor of a document, i.e.,
+     *  k1 * ((1 - b) + b * doclen / avg_doclen).
+     *  @param length The length of the field in the document.
+     *  @param avgLength The average length of the field.
+     *  @return The length normalization factor.
+     */
+    protected double computeLengthNorm(int length, double avgLength) {
+        return this.k1 * ((1.0 - this.b) + this.b * length / avgLength);
+    }
+
+    public String defaultQrySopName() {
+        return new String("#sum");
+    }
+
+    /**
+     *  Get a canonical form of the retrieval model, which includes its
+     *  parameters.
+     *  @return The canonical form of the retrieval model.
+     */
+    public String getCacheKey() {
+        return super.getCacheKey() + ":" + this.k1 + ":" + this.b + ":" + this.k3;
+    }
+
+    /**
+     *  Get the inverse document frequency of a term.  Terms that occur
+     *  in more than half of the documents get 0, not a negative weight.
+     *  @param df The document frequency of the term.
+     *  @return The idf of the term.
+     *  @throws IOException Error accessing the Lucene index.
+     */
+    public double getIdf(int df) throws IOException {
+        double n = Idx.getNumDocs();
+        return Math.max(0.0, Math.log((n - df + 0.5) / (df + 0.5)));
+    }
+
+    /**
+     *  Get the weight of a query term that occurs qtf times in the
+     *  query.
+     *  @param qtf The frequency of the term in the query.
+     *  @return The query term weight.
+     */
+    public double getUserWeight(double qtf) {
+        return (this.k3 + 1.0) * qtf / (this.k3 + qtf);
+    }
+
+    /**
+     *  Get the smallest length normalization factor that any document
+     *  can have, which bounds the tf weight of a term.
+     *  @return k1 * (1 - b).
+     */
+    public double getMinLengthNorm() {
+        return this.k1 * (1.0 - this.b);
+    }
+}
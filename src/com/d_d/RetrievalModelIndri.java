@@ -0,0 +1,99 @@
+package com.d_d; /**
+ * Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+
+/**
+ *  An object that stores parameters for the Indri query likelihood
+ *  retrieval model and indicates to the query operators how the query
+ *  should be evaluated.
+ *  <p>
+ *  The score of a document d for a term t is
+ *  </p>
+ *  <pre>
+ *    (1 - lambda) * (tf + mu * p_mle (t)) / (doclen + mu) + lambda * p_mle (t)
+ *  </pre>
+ *  <p>
+ *  where p_mle (t) = ctf / (the length of the field in the collection).
+ *  A document that doesn't contain the term gets the score for tf = 0,
+ *  its default score.  1 / (doclen + mu) is the same for every term of
+ *  a field, so it is computed once for every document and field (see
+ *  getLengthNorms) and shared by queries.  SCORE operators compute the
+ *  rest when they are initialized, so a default score doesn't need the
+ *  term's inverted list.
+ *  </p>
+ */
+public class RetrievalModelIndri extends RetrievalModel {
+
+    private final double mu;
+    private final double lambda;
+
+    /**
+     *  @param mu The Dirichlet smoothing parameter (mu &gt;= 0).
+     *  @param lambda The Jelinek-Mercer smoothing parameter (0 &lt;= lambda &lt;= 1).
+     */
+    public RetrievalModelIndri(double mu, double lambda) {
+
+        if ((mu < 0.0) || (lambda < 0.0) || (lambda > 1.0)) {
+            throw new IllegalArgumentException
+                    ("Indri requires mu >= 0 and 0 <= lambda <= 1.");
+        }
+
+        this.mu = mu;
+        this.lambda = lambda;
+    }
+
+    /**
+     *  Compute the length normalization factor of a document, i.e.,
+     *  1 / (doclen + mu).
+     *  @param length The length of the field in the document.
+     *  @param avgLength The average length of the field (that is ignored).
+     *  @return The length normalization factor.
+     */
+    protected double computeLengthNorm(int length, double avgLength) {
+        double lengthMu = length + this.mu;
+        return (lengthMu > 0.0) ? 1.0 / lengthMu : 0.0;
+    }
+
+    public String defaultQrySopName() {
+        return new String("#and");
+    }
+
+    /**
+     *  Get a canonical form of the retrieval model, which includes its
+     *  parameters.
+     *  @return The canonical form of the retrieval model.
+     */
+    public String getCacheKey() {
+        return super.getCacheKey() + ":" + this.mu + ":" + this.lambda;
+    }
+
+    /**
+     *  @return The Dirichlet smoothing parameter.
+     */
+    public double getMu() {
+        return this.mu;
+    }
+
+    /**
+     *  @return The Jelinek-Mercer smoothing parameter.
+     */
+    public double getLambda() {
+        return this.lambda;
+    }
+
+    /**
+     *  Get the maximum likelihood estimate of the probability of a term
+     *  in a field of the collection.  A term that doesn't occur gets
+     *  the probability of half an occurrence, so that it doesn't make
+     *  every document's score 0.
+     *  @param ctf The collection term frequency of the term.
+     *  @param fieldName The field name.
+     *  @return The probability of the term.
+     *  @throws IOException Error accessing the Lucene index.
+     */
+    public double getMle(int ctf, String fieldName) throws IOException {
+        return Math.max(ctf, 0.5) / Idx.getSumOfFieldLengths(fieldName);
+    }
+}
@@ -3,24 +3,89 @@ package com.d_d; /**
  */
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  *  This class implements the document score list data structure
  *  and provides methods for accessing and manipulating them.
+ *  <p>
+ *  Entries are stored in parallel primitive arrays.  Documents are
+ *  ordered by score and then by external id, but external ids are
+ *  looked up only for entries whose scores tie, and then only once.
+ *  </p>
  */
 public class ScoreList {
 
-    //  A utility class to create a <internalDocid, externalDocid, score>
-    //  object.
+    /**
+     *  The n'th entry has internal docid docids[n] and score scores[n].
+     *  externalIds[n] is its external id, or null if it hasn't been
+     *  looked up yet.
+     */
+    private int[] docids;
+    private double[] scores;
+    private String[] externalIds;
+    private int size = 0;
+
+    /**
+     *  The initial capacity of an unbounded score list.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     *  A bounded score list keeps only the best capacity entries.
+     *  Until sort is called, the entries are a min-heap whose root is
+     *  the worst entry kept so far.  capacity is 0 for an unbounded
+     *  score list, and after sort.
+     */
+    private int capacity = 0;
+
+    /**
+     *  Constructor.  An unbounded score list.
+     */
+    public ScoreList() {
+        this.allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     *  Constructor.  A score list that keeps only the top capacity
+     *  documents, using the same order as sort.  Adding n documents
+     *  costs O(n log capacity) time and O(capacity) space.
+     *  @param capacity The number of documents to keep.
+     */
+    public ScoreList(int capacity) {
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException
+                    ("The capacity of a score list must be positive.");
+        }
+
+        this.capacity = capacity;
+        this.allocate(capacity);
+    }
 
     /**
-     *  A list of document ids and scores.
+     *  Constructor.  A score list that contains entries that are
+     *  already sorted, e.g., cached results (see QryResultCache).
+     *  @param docids The internal docids.
+     *  @param scores The documents' scores.
+     *  @param size The number of entries.
      */
-    private List<ScoreListEntry> scores = new ArrayList<ScoreListEntry>();
+    public ScoreList(int[] docids, double[] scores, int size) {
+        this.allocate(Math.max(size, 1));
+        System.arraycopy(docids, 0, this.docids, 0, size);
+        System.arraycopy(scores, 0, this.scores, 0, size);
+        this.size = size;
+    }
+
+    /**
+     *  Allocate the entry arrays.
+     *  @param length The number of entries that they can hold.
+     */
+    private void allocate(int length) {
+        this.docids = new int[length];
+        this.scores = new double[length];
+        this.externalIds = new String[length];
+    }
 
     /**
      *  Append a document score to a score list.
@@ -28,7 +93,171 @@ public class ScoreList {
      *  @param score The document's score.
      */
     public void add(int docid, double score) {
-        scores.add(new ScoreListEntry(docid, score));
+
+        if (this.capacity == 0) {
+            if (this.size == this.docids.length) {
+                int length = 2 * this.docids.length;
+                this.docids = Arrays.copyOf(this.docids, length);
+                this.scores = Arrays.copyOf(this.scores, length);
+                this.externalIds = Arrays.copyOf(this.externalIds, length);
+            }
+
+            this.set(this.size++, docid, score, null);
+            return;
+        }
+
+        if (this.size < this.capacity) {
+            this.set(this.size, docid, score, null);
+            this.heapSiftUp(this.size++);
+            return;
+        }
+
+        //  The heap is full.  The new document replaces the root only if
+        //  the root sorts after it.
+
+        String externalId = null;
+
+        if (score < this.scores[0]) {
+            return;
+        } else if (score == this.scores[0]) {
+            externalId = lookupExternalDocid(docid);
+
+            if (externalId.compareTo(this.externalId(0)) >= 0) {
+                return;
+            }
+        }
+
+        this.set(0, docid, score, externalId);
+        this.heapSiftDown(0);
+    }
+
+    /**
+     *  Set the n'th entry.
+     *  @param n The index of the entry.
+     *  @param docid An internal document id.
+     *  @param score The document's score.
+     *  @param externalId The document's external id, or null.
+     */
+    private void set(int n, int docid, double score, String externalId) {
+        this.docids[n] = docid;
+        this.scores[n] = score;
+        this.externalIds[n] = externalId;
+    }
+
+    /**
+     *  Get the external id of the n'th entry, looking it up if
+     *  necessary.
+     *  @param n The index of the entry.
+     *  @return The external document id.
+     */
+    private String externalId(int n) {
+
+        if (this.externalIds[n] == null) {
+            this.externalIds[n] = lookupExternalDocid(this.docids[n]);
+        }
+
+        return this.externalIds[n];
+    }
+
+    /**
+     *  Compare two entries:  A higher score comes first, and equal
+     *  scores are ordered by external id.
+     *  @param i The index of an entry.
+     *  @param j The index of an entry.
+     *  @return A negative number, zero, or a positive number if entry i
+     *  comes before, with, or after entry j.
+     */
+    private int compare(int i, int j) {
+
+        if (this.scores[i] > this.scores[j])
+            return -1;
+        else if (this.scores[i] < this.scores[j])
+            return 1;
+        else
+            return this.externalId(i).compareTo(this.externalId(j));
+    }
+
+    /**
+     *  Move the i'th heap entry toward the root until its parent is
+     *  worse than it.
+     *  @param i The index of the heap entry.
+     */
+    private void heapSiftUp(int i) {
+
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+
+            if (this.compare(i, parent) <= 0) {
+                break;
+            }
+
+            this.swap(i, parent);
+            i = parent;
+        }
+    }
+
+    /**
+     *  Move the i'th heap entry toward the leaves until it is worse
+     *  than its children.
+     *  @param i The index of the heap entry.
+     */
+    private void heapSiftDown(int i) {
+
+        while (true) {
+            int worst = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+
+            if ((left < this.size) && (this.compare(left, worst) > 0)) {
+                worst = left;
+            }
+
+            if ((right < this.size) && (this.compare(right, worst) > 0)) {
+                worst = right;
+            }
+
+            if (worst == i) {
+                break;
+            }
+
+            this.swap(i, worst);
+            i = worst;
+        }
+    }
+
+    /**
+     *  Swap two entries.
+     *  @param i The index of an entry.
+     *  @param j The index of an entry.
+     */
+    private void swap(int i, int j) {
+
+        int docid = this.docids[i];
+        this.docids[i] = this.docids[j];
+        this.docids[j] = docid;
+
+        double score = this.scores[i];
+        this.scores[i] = this.scores[j];
+        this.scores[j] = score;
+
+        String externalId = this.externalIds[i];
+        this.externalIds[i] = this.externalIds[j];
+        this.externalIds[j] = externalId;
+    }
+
+    /**
+     *  Get the lowest score that a new document needs to enter the
+     *  score list.  A document with exactly this score may still enter,
+     *  depending on its external id.
+     *  @return The score, or negative infinity if any score can enter.
+     */
+    public double getMinCompetitiveScore() {
+
+        if ((this.capacity == 0) || (this.size < this.capacity)) {
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        return this.scores[0];
     }
 
     /**
@@ -37,7 +266,19 @@ public class ScoreList {
      *  @return The internal document id.
      */
     public int getDocid(int n) {
-        return this.scores.get(n).docid;
+        return this.docids[n];
+    }
+
+    /**
+     *  Get the external docid of the n'th entry.  It is looked up only
+     *  if sort didn't need it.
+     *  @param n The index of the requested document.
+     *  @return The external document id.
+     *  @throws IOException Error accessing the Lucene index.
+     */
+    public String getExternalDocid(int n) throws IOException {
+        return (this.externalIds[n] != null) ?
+                this.externalIds[n] : Idx.getExternalDocid(this.docids[n]);
     }
 
     /**
@@ -46,7 +287,7 @@ public class ScoreList {
      *  @return The document's score.
      */
     public double getDocidScore(int n) {
-        return this.scores.get(n).score;
+        return this.scores[n];
     }
 
     /**
@@ -55,7 +296,7 @@ public class ScoreList {
      *  @param score The new score.
      */
     public void setDocidScore(int n, double score) {
-        this.scores.get(n).score = score;
+        this.scores[n] = score;
     }
 
     /**
@@ -63,14 +304,94 @@ public class ScoreList {
      *  @return The size of the posting list.
      */
     public int size() {
-        return this.scores.size();
+        return this.size;
     }
 
     /**
-     *  Sort the list by score and external document id.
+     *  Sort the list by score and external document id.  A bounded
+     *  score list becomes an ordinary (unbounded) score list.
      */
     public void sort() {
-        Collections.sort(this.scores, new ScoreListComparator());
+
+        this.capacity = 0;
+
+        if (this.size < 2) {
+            return;
+        }
+
+        //  Merge sort a permutation of the entries (a stable sort, like
+        //  Collections.sort), then apply it to the arrays.
+
+        int[] order = new int[this.size];
+        int[] tmp = new int[this.size];
+
+        for (int i = 0; i < this.size; i++) {
+            order[i] = i;
+        }
+
+        this.mergeSort(order, tmp, 0, this.size);
+
+        int[] sortedDocids = new int[this.docids.length];
+        double[] sortedScores = new double[this.scores.length];
+        String[] sortedExternalIds = new String[this.externalIds.length];
+
+        for (int i = 0; i < this.size; i++) {
+            sortedDocids[i] = this.docids[order[i]];
+            sortedScores[i] = this.scores[order[i]];
+            sortedExternalIds[i] = this.externalIds[order[i]];
+        }
+
+        this.docids = sortedDocids;
+        this.scores = sortedScores;
+        this.externalIds = sortedExternalIds;
+    }
+
+    /**
+     *  Sort order[from] .. order[to - 1] by the order of the entries
+     *  that they refer to.  Short ranges use insertion sort.
+     *  @param order The entry indexes to sort.
+     *  @param tmp Scratch space that is as long as order.
+     *  @param from The first index to sort.
+     *  @param to One past the last index to sort.
+     */
+    private void mergeSort(int[] order, int[] tmp, int from, int to) {
+
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                int n = order[i];
+                int j = i;
+
+                while ((j > from) && (this.compare(order[j - 1], n) > 0)) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+
+                order[j] = n;
+            }
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+
+        this.mergeSort(order, tmp, from, mid);
+        this.mergeSort(order, tmp, mid, to);
+
+        if (this.compare(order[mid - 1], order[mid]) <= 0) {
+            return;         // Already in order.
+        }
+
+        System.arraycopy(order, from, tmp, from, to - from);
+
+        int i = from;
+        int j = mid;
+
+        for (int k = from; k < to; k++) {
+            if ((j >= to) || ((i < mid) && (this.compare(tmp[i], tmp[j]) <= 0))) {
+                order[k] = tmp[i++];
+            } else {
+                order[k] = tmp[j++];
+            }
+        }
     }
 
     /**
@@ -79,43 +400,30 @@ public class ScoreList {
      * @param num Number of results to keep.
      */
     public void truncate(int num) {
-        List<ScoreListEntry> truncated = new ArrayList<ScoreListEntry>(this.scores.subList(0,
-                Math.min(num, scores.size())));
-        this.scores.clear();
-        this.scores = truncated;
-    }
-
-    private class ScoreListEntry {
-        private int docid;
-        private String externalId;
-        private double score;
 
-        private ScoreListEntry(int internalDocid, double score) {
-            this.docid = internalDocid;
-            this.score = score;
-
-            try {
-                this.externalId = Idx.getExternalDocid(this.docid);
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
+        if (num < this.size) {
+            this.size = num;
+            this.docids = Arrays.copyOf(this.docids, Math.max(num, 1));
+            this.scores = Arrays.copyOf(this.scores, this.docids.length);
+            this.externalIds = Arrays.copyOf(this.externalIds, this.docids.length);
         }
     }
 
-    /*
-     *  Compare two ScoreListEntry objects.  Sort by score, then
-     *  internal docid.
+    /**
+     *  Get the external id of a document.
+     *  @param docid An internal document id.
+     *  @return The external document id.
      */
-    public class ScoreListComparator implements Comparator<ScoreListEntry> {
+    private static String lookupExternalDocid(int docid) {
 
-        @Override
-        public int compare(ScoreListEntry s1, ScoreListEntry s2) {
-            if (s1.score > s2.score)
-                return -1;
-            else if (s1.score < s2.score)
-                return 1;
-            else
-                return  s1.externalId.compareTo(s2.externalId);
+        String externalId = null;
+
+        try {
+            externalId = Idx.getExternalDocid(docid);
+        } catch (IOException ex) {
+            ex.printStackTrace();
         }
+
+        return externalId;
     }
 }
@@ -0,0 +1,161 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * A simple utility for generating a synthetic Lucene index that has
+ * the same fields as the course indexes, so that query evaluation can
+ * be timed reproducibly (see QryBenchmark).  Run it to see a simple
+ * usage message.
+ * <p>
+ * Terms are pseudo-words drawn from a Zipf distribution, so a few
+ * terms have very long inverted lists and most have short ones.  Text
+ * is indexed with the same analyzer that QryParser uses, and document
+ * lengths are stored the way that DocLengthStore expects.  The same
+ * options and seed always produce the same documents.
+ * </p>
+ */
+public class SyntheticIndex {
+
+    static String usage =
+            "Usage:  java " +
+                    System.getProperty("sun.java.command") +
+                    " -index INDEX_PATH [-docs N] [-vocabulary V] [-seed S]\n\n" +
+                    "Create a synthetic index of N documents (default 100000)\n" +
+                    "whose terms are drawn from V pseudo-words (default 50000).\n";
+
+    private static final String[] FIELDS = {"body", "title", "url", "keywords", "inlink"};
+    private static final int[] MIN_LENGTHS = {20, 1, 1, 1, 1};
+    private static final int[] MAX_LENGTHS = {600, 12, 8, 10, 30};
+    private static final String CONSONANTS = "bcdfghjklmnprstvwz";
+    private static final String VOWELS = "aeiou";
+
+    public static void main(String[] args) throws IOException {
+
+        String indexPath = null;
+        int numDocs = 100000;
+        int vocabularySize = 50000;
+        long seed = 1;
+
+        for (int i = 0; i < args.length; i++) {
+            if (("-index".equals(args[i])) && ((i + 1) < args.length)) {
+                indexPath = args[++i];
+            } else if (("-docs".equals(args[i])) && ((i + 1) < args.length)) {
+                numDocs = Integer.parseInt(args[++i]);
+            } else if (("-vocabulary".equals(args[i])) && ((i + 1) < args.length)) {
+                vocabularySize = Integer.parseInt(args[++i]);
+            } else if (("-seed".equals(args[i])) && ((i + 1) < args.length)) {
+                seed = Long.parseLong(args[++i]);
+            }
+        }
+
+        if ((indexPath == null) || (numDocs < 1) || (vocabularySize < 1)) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        Random random = new Random(seed);
+        String[] vocabulary = createVocabulary(vocabularySize, random);
+
+        //  cumulative[k] is the probability of drawing one of the k+1
+        //  most frequent words.
+
+        double[] cumulative = new double[vocabularySize];
+        double sum = 0.0;
+
+        for (int k = 0; k < vocabularySize; k++) {
+            sum += 1.0 / (k + 1);
+            cumulative[k] = sum;
+        }
+
+        for (int k = 0; k < vocabularySize; k++) {
+            cumulative[k] /= sum;
+        }
+
+        //  Create the index.
+
+        EnglishAnalyzerConfigurable analyzer =
+                new EnglishAnalyzerConfigurable(Version.LUCENE_43);
+        analyzer.setLowercase(true);
+        analyzer.setStopwordRemoval(true);
+        analyzer.setStemmer(EnglishAnalyzerConfigurable.StemmerType.KSTEM);
+
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_43, analyzer);
+        config.setSimilarity(new DocLenStoreSimilarity());
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+
+        IndexWriter writer =
+                new IndexWriter(FSDirectory.open(new File(indexPath)), config);
+        StringBuilder text = new StringBuilder();
+
+        for (int d = 0; d < numDocs; d++) {
+            Document doc = new Document();
+            doc.add(new StringField("externalId",
+                    String.format("synthetic-%08d", d), Field.Store.YES));
+
+            for (int f = 0; f < FIELDS.length; f++) {
+                int length = MIN_LENGTHS[f] +
+                        random.nextInt(MAX_LENGTHS[f] - MIN_LENGTHS[f] + 1);
+                text.setLength(0);
+
+                for (int i = 0; i < length; i++) {
+                    int k = Arrays.binarySearch(cumulative, random.nextDouble());
+                    k = (k < 0) ? Math.min(-k - 1, vocabularySize - 1) : k;
+                    text.append(vocabulary[k]).append(' ');
+                }
+
+                doc.add(new TextField(FIELDS[f], text.toString(), Field.Store.NO));
+            }
+
+            writer.addDocument(doc);
+        }
+
+        writer.close();
+        System.out.println("Created " + indexPath + " with " + numDocs + " documents.");
+    }
+
+    /**
+     * Create distinct pseudo-words made of consonant-vowel syllables.
+     *
+     * @param size   The number of words.
+     * @param random A random number generator.
+     * @return The words, most frequent first.
+     */
+    static String[] createVocabulary(int size, Random random) {
+
+        String[] vocabulary = new String[size];
+        HashSet<String> seen = new HashSet<String>();
+        StringBuilder word = new StringBuilder();
+
+        for (int k = 0; k < size; ) {
+            int syllables = 2 + random.nextInt(3);
+            word.setLength(0);
+
+            for (int s = 0; s < syllables; s++) {
+                word.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())));
+                word.append(VOWELS.charAt(random.nextInt(VOWELS.length())));
+            }
+
+            if (seen.add(word.toString())) {
+                vocabulary[k++] = word.toString();
+            }
+        }
+
+        return vocabulary;
+    }
+}
@@ -0,0 +1,370 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * TermBoundStore provides precomputed upper bounds on the term
+ * frequency of each term in each field, which dynamic pruning uses to
+ * bound document scores without reading the inverted lists.
+ * <p>
+ * The bounds are computed offline from the index (run this class to
+ * see a simple usage message) and saved in the index directory.  Idx
+ * memory-maps the saved file when the index is opened.  If there is no
+ * saved file, or it was built from a different version of the index,
+ * no bounds are available and callers must compute them.
+ * </p><p>
+ * For each term there is the largest tf of any live document.  Only
+ * fields that have positions are included.
+ * </p><p>
+ * File format (big-endian):
+ * </p>
+ * <pre>
+ *   int   MAGIC
+ *   long  index version
+ *   int   maxDoc
+ *   int   numFields
+ *   numFields times:
+ *     int   nameLength
+ *     byte  name[nameLength]      UTF-8 field name
+ *     int   numTerms
+ *     int   start                 start of the field's section
+ *   numFields sections:
+ *     int   termOffsets[numTerms + 1]   start of each term in the arena
+ *     int   maxTfs[numTerms]
+ *     byte  arena[]                     UTF-8 terms, in index order
+ * </pre>
+ */
+public class TermBoundStore {
+
+    /**
+     * The name of the saved file in the index directory.
+     */
+    public static final String FILE_NAME = "termBounds.dat";
+
+    private static final int MAGIC = 0x54424432;    // "TBD2"
+    private static final int HEADER_LENGTH = 4 + 8 + 4 + 4;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static String usage =
+            "Usage:  java " +
+                    System.getProperty("sun.java.command") +
+                    " -index INDEX_PATH\n\n" +
+                    "Compute the term frequency bounds of the index and save\n" +
+                    "them in the index directory as " + FILE_NAME + ".\n";
+
+    /**
+     * The location of one field's section in the table.
+     */
+    private static class Section {
+        int numTerms;
+        int termOffsetsStart;
+        int maxTfsStart;
+        int arenaStart;
+    }
+
+    /**
+     * The memory-mapped table, or null if no bounds are available.
+     * Reads use absolute positions, so the buffer may be shared by
+     * threads.
+     */
+    private ByteBuffer table = null;
+    private HashMap<String, Section> sections = new HashMap<String, Section>();
+
+    /**
+     * Load the saved bounds of an index, if they exist and match the
+     * index.
+     *
+     * @param reader    IndexReader object created in {@link Idx}.
+     * @param indexPath A directory that contains the Lucene index.
+     */
+    public TermBoundStore(IndexReader reader, String indexPath) {
+
+        File file = new File(indexPath, FILE_NAME);
+
+        if (!file.canRead()) {
+            return;
+        }
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+            try {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer t = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+                if ((t.capacity() >= HEADER_LENGTH) &&
+                        (t.getInt(0) == MAGIC) &&
+                        (t.getLong(4) == getIndexVersion(reader)) &&
+                        (t.getInt(4 + 8) == reader.maxDoc())) {
+                    this.readDirectory(t);
+                    this.table = t;
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException ex) {
+            //  No bounds are available.
+            this.sections.clear();
+        }
+    }
+
+    /**
+     * Read the field directory of the table.
+     *
+     * @param t The table.
+     */
+    private void readDirectory(ByteBuffer t) {
+
+        int numFields = t.getInt(4 + 8 + 4);
+        int p = HEADER_LENGTH;
+
+        for (int f = 0; f < numFields; f++) {
+            byte[] name = new byte[t.getInt(p)];
+            p += 4;
+
+            for (int i = 0; i < name.length; i++) {
+                name[i] = t.get(p++);
+            }
+
+            Section s = new Section();
+            s.numTerms = t.getInt(p);
+            s.termOffsetsStart = t.getInt(p + 4);
+            s.maxTfsStart = s.termOffsetsStart + 4 * (s.numTerms + 1);
+            s.arenaStart = s.maxTfsStart + 4 * s.numTerms;
+            p += 8;
+
+            this.sections.put(new String(name, UTF8), s);
+        }
+    }
+
+    /**
+     * Returns the largest term frequency of a term in any live document.
+     *
+     * @param fieldName The field name.
+     * @param term      The processed (stemmed, lower-cased, etc) term.
+     * @return The largest tf, 0 if the term doesn't occur in the field,
+     * or -1 if no bound is available for the field.
+     */
+    public int getMaxTf(String fieldName, String term) {
+
+        Section s = this.sections.get(fieldName);
+
+        if (s == null) {
+            return -1;
+        }
+
+        int n = this.find(s, term);
+        return (n < 0) ? 0 : this.table.getInt(s.maxTfsStart + 4 * n);
+    }
+
+    /**
+     * Find a term in a field's section with a binary search.  Terms are
+     * in Lucene's index order, which compares unsigned UTF-8 bytes.
+     *
+     * @param s    The field's section.
+     * @param term The term.
+     * @return The index of the term in the section, or -1 if it isn't there.
+     */
+    private int find(Section s, String term) {
+
+        ByteBuffer t = this.table;
+        byte[] key = term.getBytes(UTF8);
+
+        int lo = 0;
+        int hi = s.numTerms - 1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int start = s.arenaStart + t.getInt(s.termOffsetsStart + 4 * mid);
+            int length = s.arenaStart + t.getInt(s.termOffsetsStart + 4 * (mid + 1)) - start;
+            int n = Math.min(length, key.length);
+            int c = 0;
+
+            for (int i = 0; (c == 0) && (i < n); i++) {
+                c = (t.get(start + i) & 0xff) - (key[i] & 0xff);
+            }
+
+            if (c == 0) {
+                c = length - key.length;
+            }
+
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the version of the index, which changes when the index does.
+     *
+     * @param reader An index reader.
+     * @return The index version.
+     */
+    private static long getIndexVersion(IndexReader reader) {
+        return (reader instanceof DirectoryReader) ?
+                ((DirectoryReader) reader).getVersion() : 0;
+    }
+
+    /**
+     * Compute the bounds of an index and save them in the index
+     * directory.  The file is written to a temporary file that then
+     * replaces the saved file (see Idx.replaceFile), so a concurrent
+     * reader never sees a partial file.  The sections are built in
+     * memory, so the file must be smaller than 2GB.
+     *
+     * @param reader    An index reader.
+     * @param indexPath The directory that contains the Lucene index.
+     * @throws IOException Error accessing the Lucene index.
+     */
+    public static void build(IndexReader reader, String indexPath)
+            throws IOException {
+
+        Fields fields = MultiFields.getFields(reader);
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        List<String> names = new ArrayList<String>();
+        List<Integer> numTerms = new ArrayList<Integer>();
+        List<byte[]> sections = new ArrayList<byte[]>();
+
+        for (String fieldName : (fields == null) ? new ArrayList<String>() : fields) {
+            Terms terms = fields.terms(fieldName);
+
+            if ((terms == null) || !terms.hasPositions()) {
+                continue;
+            }
+
+            ByteArrayOutputStream termOffsets = new ByteArrayOutputStream();
+            ByteArrayOutputStream maxTfs = new ByteArrayOutputStream();
+            ByteArrayOutputStream arena = new ByteArrayOutputStream();
+            DataOutputStream termOffsetsOut = new DataOutputStream(termOffsets);
+            DataOutputStream maxTfsOut = new DataOutputStream(maxTfs);
+
+            TermsEnum termsEnum = terms.iterator(null);
+            DocsEnum docs = null;
+            BytesRef term;
+            int n = 0;
+
+            termOffsetsOut.writeInt(0);
+
+            while ((term = termsEnum.next()) != null) {
+
+                //  Read the frequencies of the live documents.
+
+                int maxTf = 0;
+
+                docs = termsEnum.docs(liveDocs, docs, DocsEnum.FLAG_FREQS);
+
+                while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                    maxTf = Math.max(maxTf, docs.freq());
+                }
+
+                arena.write(term.bytes, term.offset, term.length);
+                termOffsetsOut.writeInt(arena.size());
+                maxTfsOut.writeInt(maxTf);
+                n++;
+            }
+
+            ByteArrayOutputStream section = new ByteArrayOutputStream();
+            termOffsets.writeTo(section);
+            maxTfs.writeTo(section);
+            arena.writeTo(section);
+
+            names.add(fieldName);
+            numTerms.add(n);
+            sections.add(section.toByteArray());
+        }
+
+        //  The sections follow the directory.
+
+        int start = HEADER_LENGTH;
+
+        for (String fieldName : names) {
+            start += 4 + fieldName.getBytes(UTF8).length + 4 + 4;
+        }
+
+        File file = new File(indexPath, FILE_NAME);
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        boolean saved = false;
+
+        try {
+            try {
+                out.writeInt(MAGIC);
+                out.writeLong(getIndexVersion(reader));
+                out.writeInt(reader.maxDoc());
+                out.writeInt(names.size());
+
+                for (int f = 0; f < names.size(); f++) {
+                    byte[] name = names.get(f).getBytes(UTF8);
+                    out.writeInt(name.length);
+                    out.write(name);
+                    out.writeInt(numTerms.get(f));
+                    out.writeInt(start);
+                    start += sections.get(f).length;
+                }
+
+                for (byte[] section : sections) {
+                    out.write(section);
+                }
+            } finally {
+                out.close();
+            }
+
+            Idx.replaceFile(tmp, file);
+            saved = true;
+        } finally {
+            if (!saved) {
+                tmp.delete();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        String indexPath = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (("-index".equals(args[i])) && ((i + 1) < args.length)) {
+                indexPath = args[++i];
+            }
+        }
+
+        if (indexPath == null) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        IndexReader reader =
+                DirectoryReader.open(FSDirectory.open(new File(indexPath)));
+
+        build(reader, indexPath);
+        reader.close();
+        System.out.println("Saved " + new File(indexPath, FILE_NAME).getPath());
+    }
+}
@@ -0,0 +1,286 @@
+package com.d_d;/*
+ *  Copyright (c) 2017, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * TrecResultWriter writes query results in trec_eval input format on a
+ * background thread, so that query evaluation doesn't wait for the
+ * file.  Results are passed to the thread through a bounded queue and
+ * written in the order that they were queued, through a large direct
+ * buffer.
+ * <p>
+ * appendScore formats scores exactly like String.format ("%.18f"),
+ * which is much slower.
+ * </p><p>
+ * Only one thread may call write and close.  An error that the
+ * background thread encounters is thrown by the next call.
+ * </p>
+ */
+public class TrecResultWriter {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int QUEUE_SIZE = 64;
+    private static final int SCORE_PRECISION = 18;
+
+    /**
+     * Queued to tell the background thread to finish.
+     */
+    private static final String END = new String();
+
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+    private final FileChannel channel;
+    private final Thread thread;
+
+    /**
+     * The first error that the background thread encountered, or null.
+     */
+    private volatile IOException error = null;
+
+    /**
+     * @param path The file to create.
+     * @throws IOException Error creating the file.
+     */
+    public TrecResultWriter(String path) throws IOException {
+
+        this.channel = new FileOutputStream(path).getChannel();
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                TrecResultWriter.this.drain();
+            }
+        }, "TrecResultWriter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue text to be written.  It waits if the queue is full.
+     *
+     * @param text The text.
+     * @throws IOException The background thread couldn't write.
+     */
+    public void write(String text) throws IOException {
+
+        this.checkError();
+
+        try {
+            this.queue.put(text);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing results.", ex);
+        }
+    }
+
+    /**
+     * Write the queued text, and close the file.
+     *
+     * @throws IOException The background thread couldn't write.
+     */
+    public void close() throws IOException {
+
+        try {
+            this.queue.put(END);
+            this.thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing results.", ex);
+        } finally {
+            this.channel.close();
+        }
+
+        this.checkError();
+    }
+
+    private void checkError() throws IOException {
+        if (this.error != null) {
+            throw this.error;
+        }
+    }
+
+    /**
+     * The background thread:  encode queued text in the platform's
+     * default charset and write it, until END.  Like FileWriter,
+     * characters that the charset can't encode are replaced, e.g., by
+     * '?'.  After an error, text is discarded so that write doesn't
+     * block.
+     */
+    private void drain() {
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        try {
+            String text;
+
+            while ((text = this.queue.take()) != END) {
+                if (this.error != null) {
+                    continue;
+                }
+
+                try {
+                    CharBuffer chars = CharBuffer.wrap(text);
+
+                    while (encoder.encode(chars, buffer, false) == CoderResult.OVERFLOW) {
+                        this.flush(buffer);
+                    }
+                } catch (IOException ex) {
+                    this.error = ex;
+                }
+            }
+
+            if (this.error == null) {
+                while (encoder.encode(CharBuffer.allocate(0), buffer, true) ==
+                        CoderResult.OVERFLOW) {
+                    this.flush(buffer);
+                }
+
+                while (encoder.flush(buffer) == CoderResult.OVERFLOW) {
+                    this.flush(buffer);
+                }
+
+                this.flush(buffer);
+            }
+        } catch (InterruptedException ex) {
+            this.error = new IOException("Interrupted while writing results.", ex);
+        } catch (IOException ex) {
+            this.error = ex;
+        }
+    }
+
+    /**
+     * Write the contents of the buffer to the file, and empty it.
+     *
+     * @param buffer The buffer.
+     * @throws IOException Error writing the file.
+     */
+    private void flush(ByteBuffer buffer) throws IOException {
+
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    /**
+     * Append a score formatted the way that String.format ("%.18f")
+     * formats it.  Formatter starts from the shortest decimal digits
+     * that identify the double (those of Double.toString), rounds them
+     * half up to 18 fraction digits, and pads them with zeros.  This
+     * does the same without Formatter's parsing and allocation.
+     *
+     * @param output The text to append to.
+     * @param score  The score.
+     */
+    public static void appendScore(StringBuilder output, double score) {
+
+        if (Double.isNaN(score) || Double.isInfinite(score)) {
+            output.append(String.format("%.18f", score));
+            return;
+        }
+
+        if (Double.compare(score, 0.0) < 0) {
+            output.append('-');
+            score = -score;
+        }
+
+        //  Get the digits of the score and the position of the decimal
+        //  point (decExp) in the form 0.digits * 10^decExp.  toString
+        //  produces "123.45" or "1.2345E-5".
+
+        String s = Double.toString(score);
+        int e = s.indexOf('E');
+        int end = (e < 0) ? s.length() : e;
+        int point = s.indexOf('.');
+        char[] digits = new char[end - 1];
+        int n = 0;
+        int decExp = point + ((e < 0) ? 0 : Integer.parseInt(s.substring(e + 1)));
+
+        for (int i = 0; i < end; i++) {
+            char c = s.charAt(i);
+
+            if (c == '.') {
+                continue;
+            }
+
+            if ((c == '0') && (n == 0)) {
+                decExp--;           // Skip leading zeros.
+            } else {
+                digits[n++] = c;
+            }
+        }
+
+        while ((n > 0) && (digits[n - 1] == '0')) {
+            n--;                    // Skip trailing zeros.
+        }
+
+        if (n == 0) {
+            decExp = 0;             // The score is 0.
+        }
+
+        //  Round half up to SCORE_PRECISION fraction digits, like
+        //  FormattedFloatingDecimal.applyPrecision.
+
+        int prec = decExp + SCORE_PRECISION;
+
+        if ((prec >= 0) && (prec < n)) {
+            if (prec == 0) {
+                if (digits[0] >= '5') {
+                    digits[0] = '1';
+                    n = 1;
+                    decExp++;
+                } else {
+                    n = 0;
+                }
+            } else if (digits[prec] >= '5') {
+                int i = prec - 1;
+
+                while ((i >= 0) && (digits[i] == '9')) {
+                    i--;
+                }
+
+                if (i < 0) {
+                    digits[0] = '1';
+                    n = 1;
+                    decExp++;
+                } else {
+                    digits[i]++;
+                    n = i + 1;
+                }
+            } else {
+                n = prec;
+            }
+        }
+
+        //  The integer part, then the fraction digits.
+
+        if (decExp <= 0) {
+            output.append('0');
+        } else {
+            for (int i = 0; i < decExp; i++) {
+                output.append((i < n) ? digits[i] : '0');
+            }
+        }
+
+        output.append('.');
+
+        for (int i = decExp; i < decExp + SCORE_PRECISION; i++) {
+            output.append(((i >= 0) && (i < n)) ? digits[i] : '0');
+        }
+    }
+}